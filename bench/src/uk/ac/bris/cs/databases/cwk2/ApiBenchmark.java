@@ -0,0 +1,96 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.bris.cs.databases.api.ForumView;
+import uk.ac.bris.cs.databases.api.Result;
+import uk.ac.bris.cs.databases.api.TopicView;
+
+/**
+ * The APIProvider methods the forum pages call most, run against
+ * StubDriver. With no database behind it this measures what the api
+ * itself costs per call: borrowing a connection, preparing and timing
+ * statements, walking the rows and building the views.
+ *
+ * @author ac16888
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiBenchmark {
+
+    /** Rows list queries return: posts in a topic, topics in a forum, users. */
+    @Param({ "10", "100" })
+    public int rows;
+
+    private ConnectionPool pool;
+    private API api;
+
+    @Setup
+    public void setUp() throws SQLException {
+        StubDriver.register();
+        // set up as the server is by default
+        pool = new ConnectionPool(StubDriver.url(rows), 4, 1000, 60000);
+        pool.setStatementCacheSize(64);
+        pool.setSqlStats(new SqlStats(Long.MAX_VALUE / 1000000, 0));
+        api = new API(pool);
+        // a failing call is a broken stub, not something worth timing
+        for (Result r : new Result[] {
+                getTopic(), getTopicPage(), getForum(), getUsers(), createPost(), createTopic() }) {
+            if (!r.isSuccess()) {
+                throw new IllegalStateException(r.getMessage());
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public Result<TopicView> getTopic() {
+        return api.getTopic(1);
+    }
+
+    @Benchmark
+    public Result<TopicView> getTopicPage() {
+        return api.getTopic(1, 0, 50);
+    }
+
+    @Benchmark
+    public Result<ForumView> getForum() {
+        return api.getForum(1);
+    }
+
+    @Benchmark
+    public Result<Map<String, String>> getUsers() {
+        return api.getUsers();
+    }
+
+    @Benchmark
+    public Result createPost() {
+        return api.createPost(1, "bench", "A post written by the benchmark.");
+    }
+
+    @Benchmark
+    public Result createTopic() {
+        return api.createTopic(1, "bench", "Benchmark topic", "The first post.");
+    }
+}
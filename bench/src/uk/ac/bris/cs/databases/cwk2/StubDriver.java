@@ -0,0 +1,196 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver that answers every statement from memory, so the api can
+ * be benchmarked without a database and every run sees the same data.
+ * Connect to "jdbc:benchstub:n" to have list queries return n rows.
+ *
+ * There is no schema, rows are made up from the SQL text:
+ * - count(...) queries find nothing, so creates never see a duplicate
+ * - queries with a LIMIT return as many rows as the last int parameter
+ * asks for, up to n
+ * - joins and unfiltered selects return n rows
+ * - anything else (lookups by id or username) returns one row
+ * - updates change one row and generated keys are 1
+ * Columns read by name get a value that depends only on the row number.
+ *
+ * @author ac16888
+ */
+class StubDriver implements Driver {
+
+    static final String PREFIX = "jdbc:benchstub:";
+
+    private static final long BASE_TIME = 1500000000000L;
+    private static final String TEXT =
+        "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
+        + "eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut "
+        + "enim ad minim veniam, quis nostrud exercitation ullamco laboris "
+        + "nisi ut aliquip ex ea commodo consequat.";
+
+    private static boolean registered;
+
+    static synchronized void register() throws SQLException {
+        if (!registered) {
+            DriverManager.registerDriver(new StubDriver());
+            registered = true;
+        }
+    }
+
+    /**
+     * @param rows - rows list queries return
+     * @return the url to give the connection pool
+     */
+    static String url(int rows) {
+        return PREFIX + rows;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        int rows = Integer.parseInt(url.substring(PREFIX.length()));
+        return proxy(Connection.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "prepareStatement":
+                    return statement((String) args[0], rows);
+                case "isValid":
+                    return true;
+                case "getAutoCommit":
+                case "isClosed":
+                    return false;
+                default:
+                    return defaultValue(m);
+            }
+        });
+    }
+
+    private static PreparedStatement statement(String sql, int rows) {
+        String s = sql.toLowerCase();
+        boolean query = s.startsWith("select");
+        boolean count = s.contains("count(");
+        int[] lastInt = { -1 };
+        return proxy(PreparedStatement.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "setInt":
+                    lastInt[0] = (Integer) args[1];
+                    return null;
+                case "executeQuery":
+                    return results(count ? 1 : rowCount(s, rows, lastInt[0]), count);
+                case "executeUpdate":
+                    return 1;
+                case "execute":
+                    return query;
+                case "getGeneratedKeys":
+                    return results(1, false);
+                default:
+                    return defaultValue(m);
+            }
+        });
+    }
+
+    private static int rowCount(String sql, int rows, int lastInt) {
+        if (sql.contains("limit ?") && lastInt >= 0) {
+            return Math.min(lastInt, rows);
+        }
+        if (sql.contains(" join ") || !sql.contains(" where ")) {
+            return rows;
+        }
+        return 1;
+    }
+
+    private static ResultSet results(int rows, boolean count) {
+        int[] row = { -1 };
+        return proxy(ResultSet.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "next":
+                    return ++row[0] < rows;
+                case "getInt":
+                case "getLong":
+                    int v = count ? 0 : row[0] + 1;
+                    return m.getReturnType() == long.class ? (Object) (long) v : (Object) v;
+                case "getString":
+                    String column = String.valueOf(args[0]);
+                    return "text".equals(column) ? TEXT : column + " " + (row[0] + 1);
+                case "getTimestamp":
+                    return new Timestamp(BASE_TIME + row[0] * 60000L);
+                case "wasNull":
+                case "isClosed":
+                    return false;
+                default:
+                    return defaultValue(m);
+            }
+        });
+    }
+
+    /* null, or zero / false for methods that return a primitive */
+    private static Object defaultValue(Method m) {
+        Class<?> t = m.getReturnType();
+        if (t == boolean.class) {
+            return false;
+        }
+        if (t == int.class) {
+            return 0;
+        }
+        if (t == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler h) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+            (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + "@stub";
+                    default:
+                        return h.invoke(proxy, m, args);
+                }
+            });
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() { return 1; }
+
+    @Override
+    public int getMinorVersion() { return 0; }
+
+    @Override
+    public boolean jdbcCompliant() { return false; }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,498 @@
+package uk.ac.bris.cs.databases.load;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import uk.ac.bris.cs.databases.web.Histogram;
+
+/**
+ * Drives a running Server over HTTP with a mix of page views and posts
+ * from logged in users, and reports throughput and latency per route.
+ * Everything is configured with system properties, see README.
+ *
+ * There are two ways of generating load:
+ * - closed: load.users users each send a request, wait for the answer,
+ * and send the next, optionally pacing themselves to one request per
+ * load.cycleMillis. How much load there is depends on how fast the server
+ * answers.
+ * - rate: requests are started at load.rate a second on a fixed schedule,
+ * over at most load.users connections, whatever the server does.
+ *
+ * Both correct for coordinated omission, where a slow server holds back
+ * the requests that would have seen it being slow. In rate mode latency
+ * is measured from when a request was due to start, not when a connection
+ * was free to send it. In closed mode with a cycle, a response that took
+ * longer than the cycle also records the requests the user would have sent
+ * meanwhile, with the latencies they would have seen (as HdrHistogram's
+ * recordValueWithExpectedInterval does). A closed loop without a cycle has
+ * no schedule to fall behind, use rate mode for latency under a given load.
+ *
+ * The forums, topics and users to use are read from the server's own
+ * pages before starting. load.seed creates them first on an empty database.
+ *
+ * @author csxdb
+ */
+public class LoadTest {
+
+    // target //
+    private static final String URL = System.getProperty("load.url", "http://localhost:8000");
+    private static final int TIMEOUT_MILLIS = Integer.getInteger("load.timeoutMillis", 30000);
+
+    // workload //
+    private static final String MODE = System.getProperty("load.mode", "closed");
+    private static final int USERS = Integer.getInteger("load.users", 16);
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "200"));
+    private static final long CYCLE_MILLIS = Long.getLong("load.cycleMillis", 0L);
+    private static final String MIX = System.getProperty("load.mix",
+        "forums=10,forum=20,topic=50,people=5,createpost=12,createtopic=3");
+    private static final double SKEW = Double.parseDouble(System.getProperty("load.skew", "2"));
+    private static final long RANDOM_SEED = Long.getLong("load.randomSeed", 1L);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 60);
+
+    // data //
+    private static final String SEED = System.getProperty("load.seed", "");
+    private static final String USER_PREFIX = System.getProperty("load.userPrefix", "");
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1 };
+    private static final String SEED_USER = "load";
+    private static final String SEED_FORUM = "Load forum ";
+    private static final String TEXT =
+        "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
+        + "eiusmod tempor incididunt ut labore et dolore magna aliqua.";
+
+    private static final Pattern FORUM_LINK = Pattern.compile("href=\"/forum/(\\d+)\">([^<]*)</a>");
+    private static final Pattern TOPIC_LINK = Pattern.compile("href=\"/topic/(\\d+)\"");
+    private static final Pattern LOGIN_LINK = Pattern.compile("href=\"/login/([^\"]+)\"");
+
+    /** The requests the mix is made of. */
+    enum Op {
+        FORUMS("forums", "GET /forums"),
+        FORUM("forum", "GET /forum/:id"),
+        TOPIC("topic", "GET /topic/:id"),
+        PEOPLE("people", "GET /people"),
+        CREATE_POST("createpost", "POST /createpost"),
+        CREATE_TOPIC("createtopic", "POST /createtopic");
+
+        final String key;
+        final String label;
+
+        Op(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        static Op forKey(String key) {
+            for (Op op : values()) {
+                if (op.key.equals(key)) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("Unknown request in load.mix: " + key
+                + ", expected forums, forum, topic, people, createpost or createtopic.");
+        }
+    }
+
+    /** One route's results. */
+    static final class RouteStats {
+        final Histogram latency = new Histogram();
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    }
+
+    private final HttpClient client;
+    private final Op[] mix; // one entry per unit of weight
+    private final Map<Op, RouteStats> stats = new EnumMap<>(Op.class);
+    private final List<Integer> forums = new ArrayList<>();
+    private final List<Integer> topics = new ArrayList<>();
+    private final List<String> sessions = new ArrayList<>();
+    private long recordFrom; // requests due before this are warmup
+    private long stopAt;
+
+    LoadTest() {
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(TIMEOUT_MILLIS))
+            .build();
+        this.mix = parseMix(MIX);
+        for (Op op : Op.values()) {
+            stats.put(op, new RouteStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTest t = new LoadTest();
+        try {
+            if (!SEED.isEmpty()) {
+                t.seed(SEED);
+            }
+            t.discover();
+        } catch (ConnectException e) {
+            System.out.println("Nothing is answering at " + URL + ", start the server first.");
+            System.exit(1);
+        }
+        System.out.println("Using " + t.forums.size() + " forums, " + t.topics.size()
+            + " topics and " + t.sessions.size() + " logged in users.");
+        long start = System.nanoTime();
+        t.recordFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        t.stopAt = t.recordFrom + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        switch (MODE) {
+            case "closed":
+                System.out.println("Closed loop, " + USERS + " users"
+                    + (CYCLE_MILLIS > 0 ? ", one request per " + CYCLE_MILLIS + "ms each" : "")
+                    + ", " + WARMUP_SECONDS + "s warmup then " + DURATION_SECONDS + "s.");
+                t.runClosed();
+                break;
+            case "rate":
+                System.out.println("Constant rate, " + RATE + " requests/s over at most "
+                    + USERS + " connections, " + WARMUP_SECONDS + "s warmup then "
+                    + DURATION_SECONDS + "s.");
+                t.runRate();
+                break;
+            default:
+                throw new IllegalArgumentException("load.mode must be closed or rate, got " + MODE);
+        }
+        t.report();
+    }
+
+    /* "forums=10,topic=50" -> ten FORUMS and fifty TOPICs, picked from at random */
+    private static Op[] parseMix(String spec) {
+        List<Op> ops = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            Op op = Op.forKey(kv[0].trim());
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                ops.add(op);
+            }
+        }
+        if (ops.isEmpty()) {
+            throw new IllegalArgumentException("load.mix is empty.");
+        }
+        return ops.toArray(new Op[0]);
+    }
+
+    /// workload ///
+
+    /** A request decided on ahead of sending it. */
+    private static final class Call {
+        final Op op;
+        final HttpRequest request;
+
+        Call(Op op, HttpRequest request) {
+            this.op = op;
+            this.request = request;
+        }
+    }
+
+    private Call next(SplittableRandom r, String session) {
+        Op op = mix[r.nextInt(mix.length)];
+        // posts need something to post to, fall back to reading
+        if ((op == Op.CREATE_POST || op == Op.TOPIC) && topics.isEmpty()
+                || (op == Op.CREATE_TOPIC || op == Op.FORUM) && forums.isEmpty()) {
+            op = Op.FORUMS;
+        }
+        switch (op) {
+            case FORUM:
+                return new Call(op, get("/forum/" + pick(r, forums), session));
+            case TOPIC:
+                return new Call(op, get("/topic/" + pick(r, topics), session));
+            case PEOPLE:
+                return new Call(op, get("/people", session));
+            case CREATE_POST:
+                return new Call(op, post("/createpost", session,
+                    "topic", pick(r, topics), "text", TEXT));
+            case CREATE_TOPIC:
+                return new Call(op, post("/createtopic", session,
+                    "forum", pick(r, forums), "title", "Load topic " + r.nextInt(1000000),
+                    "text", TEXT));
+            default:
+                return new Call(op, get("/forums", session));
+        }
+    }
+
+    /* with a skew over 1 the start of the list (the newest topics) is busier */
+    private static <T> T pick(SplittableRandom r, List<T> from) {
+        int i = (int) (from.size() * Math.pow(r.nextDouble(), SKEW));
+        return from.get(Math.min(i, from.size() - 1));
+    }
+
+    private void runClosed() throws InterruptedException {
+        Thread[] users = new Thread[USERS];
+        for (int u = 0; u < USERS; u++) {
+            SplittableRandom r = new SplittableRandom(RANDOM_SEED + u);
+            String session = sessions.isEmpty() ? null : sessions.get(u % sessions.size());
+            users[u] = new Thread(() -> {
+                long cycle = TimeUnit.MILLISECONDS.toNanos(CYCLE_MILLIS);
+                long due = System.nanoTime();
+                while (due < stopAt) {
+                    Call c = next(r, session);
+                    long latency = send(c, due);
+                    if (cycle > 0 && due >= recordFrom) {
+                        // the requests this user would have sent while waiting
+                        RouteStats s = stats.get(c.op);
+                        for (long missed = latency - cycle; missed > 0; missed -= cycle) {
+                            s.latency.record(missed);
+                        }
+                    }
+                    due = Math.max(due + cycle, System.nanoTime());
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+            }, "load-user-" + u);
+            users[u].start();
+        }
+        for (Thread t : users) {
+            t.join();
+        }
+    }
+
+    private void runRate() throws InterruptedException {
+        ExecutorService connections = Executors.newFixedThreadPool(USERS, task -> {
+            Thread t = new Thread(task, "load-connection");
+            t.setDaemon(true);
+            return t;
+        });
+        SplittableRandom r = new SplittableRandom(RANDOM_SEED);
+        double interval = 1e9 / RATE;
+        long start = System.nanoTime();
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * interval);
+            if (due >= stopAt) {
+                break;
+            }
+            Call c = next(r, sessions.isEmpty() ? null : sessions.get((int) (i % sessions.size())));
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // waits in the queue for a free connection count towards the latency
+            connections.execute(() -> send(c, due));
+        }
+        connections.shutdown();
+        if (!connections.awaitTermination(TIMEOUT_MILLIS + 10000, TimeUnit.MILLISECONDS)) {
+            System.out.println("Some requests had not finished, they are left out.");
+        }
+    }
+
+    /**
+     * @param due - when the request should have started, its latency is measured from here
+     * @return the latency in nanoseconds
+     */
+    private long send(Call c, long due) {
+        int status;
+        try {
+            status = client.send(c.request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            status = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        long latency = System.nanoTime() - due;
+        if (due >= recordFrom) {
+            RouteStats s = stats.get(c.op);
+            s.latency.record(latency);
+            s.requests.increment();
+            if (status < 200 || status >= 300) {
+                s.errors.increment();
+                s.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+            }
+        }
+        return latency;
+    }
+
+    /// report ///
+
+    private void report() {
+        System.out.println();
+        System.out.println(String.format("%-18s %9s %9s %7s %9s %9s %9s %9s %9s",
+            "route", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long total = 0;
+        long errors = 0;
+        for (Map.Entry<Op, RouteStats> e : stats.entrySet()) {
+            RouteStats s = e.getValue();
+            long n = s.requests.sum();
+            if (n == 0) {
+                continue;
+            }
+            total += n;
+            errors += s.errors.sum();
+            double[] q = s.latency.quantiles(QUANTILES);
+            System.out.println(String.format("%-18s %9d %9.1f %7d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                e.getKey().label, n, n / (double) DURATION_SECONDS, s.errors.sum(),
+                q[0] * 1e3, q[1] * 1e3, q[2] * 1e3, q[3] * 1e3, q[4] * 1e3));
+        }
+        System.out.println(String.format("%-18s %9d %9.1f %7d", "total", total,
+            total / (double) DURATION_SECONDS, errors));
+        for (Map.Entry<Op, RouteStats> e : stats.entrySet()) {
+            if (!e.getValue().statuses.isEmpty()) {
+                Map<Integer, LongAdder> codes = new TreeMap<>(e.getValue().statuses);
+                StringBuilder sb = new StringBuilder(e.getKey().label).append(" errors:");
+                for (Map.Entry<Integer, LongAdder> c : codes.entrySet()) {
+                    sb.append(' ').append(c.getKey() < 0 ? "io" : c.getKey().toString())
+                      .append('=').append(c.getValue().sum());
+                }
+                System.out.println(sb);
+            }
+        }
+    }
+
+    /// setup ///
+
+    /* reads the forums, topics and users there are and logs the users in */
+    private void discover() throws IOException, InterruptedException {
+        Matcher m = FORUM_LINK.matcher(fetch("/forums", null));
+        while (m.find()) {
+            forums.add(Integer.parseInt(m.group(1)));
+        }
+        for (int forum : forums) {
+            Matcher t = TOPIC_LINK.matcher(fetch("/forum/" + forum + "?limit=500", null));
+            while (t.find()) {
+                topics.add(Integer.parseInt(t.group(1)));
+            }
+        }
+        Matcher p = LOGIN_LINK.matcher(fetch("/people?limit=1000&prefix=" + encode(USER_PREFIX), null));
+        while (p.find() && sessions.size() < USERS) {
+            sessions.add(login(p.group(1)));
+        }
+    }
+
+    /**
+     * Creates people, forums, topics and posts over HTTP. Safe to run
+     * again: existing people and forums are left, and only forums with
+     * fewer topics than asked for get more.
+     * @param spec - "people,forums,topics per forum,posts per topic"
+     */
+    private void seed(String spec) throws IOException, InterruptedException {
+        String[] parts = spec.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("load.seed is people,forums,topics,posts, got " + spec);
+        }
+        int people = Integer.parseInt(parts[0].trim());
+        if (people < 1) {
+            throw new IllegalArgumentException("load.seed needs at least one person to post as.");
+        }
+        int forumCount = Integer.parseInt(parts[1].trim());
+        int topicCount = Integer.parseInt(parts[2].trim());
+        int postCount = Integer.parseInt(parts[3].trim());
+        System.out.println("Seeding " + people + " people, " + forumCount + " forums, "
+            + topicCount + " topics per forum and " + postCount + " posts per topic.");
+
+        for (int i = 1; i <= people; i++) {
+            // fails harmlessly if they are already there
+            call(post("/createperson", null, "name", "Load User " + i,
+                "username", SEED_USER + i, "stuid", ""));
+        }
+        List<String> authors = new ArrayList<>();
+        for (int i = 1; i <= Math.min(people, 20); i++) {
+            authors.add(login(SEED_USER + i));
+        }
+        String session = authors.get(0);
+        for (int i = 1; i <= forumCount; i++) {
+            call(post("/createforum", session, "title", SEED_FORUM + i));
+        }
+        SplittableRandom r = new SplittableRandom(RANDOM_SEED);
+        Matcher m = FORUM_LINK.matcher(fetch("/forums", null));
+        while (m.find()) {
+            if (!m.group(2).startsWith(SEED_FORUM)) {
+                continue;
+            }
+            int forum = Integer.parseInt(m.group(1));
+            Matcher t = TOPIC_LINK.matcher(fetch("/forum/" + forum + "?limit=500", null));
+            int have = 0;
+            while (t.find()) {
+                have++;
+            }
+            for (int i = have; i < topicCount; i++) {
+                call(post("/createtopic", session, "forum", forum,
+                    "title", "Seed topic " + (i + 1), "text", TEXT));
+            }
+            if (have < topicCount) {
+                // the new topics are the first ones listed
+                Matcher added = TOPIC_LINK.matcher(fetch("/forum/" + forum + "?limit=" + (topicCount - have), null));
+                while (added.find()) {
+                    for (int p = 1; p < postCount; p++) {
+                        call(post("/createpost", authors.get(r.nextInt(authors.size())),
+                            "topic", added.group(1), "text", TEXT));
+                    }
+                }
+            }
+        }
+    }
+
+    private String login(String username) throws IOException, InterruptedException {
+        HttpResponse<Void> r = client.send(get("/login/" + encode(username).replace("+", "%20"), null),
+            HttpResponse.BodyHandlers.discarding());
+        for (String cookie : r.headers().allValues("Set-Cookie")) {
+            if (cookie.startsWith("session=")) {
+                return cookie.substring(0, cookie.indexOf(';') < 0 ? cookie.length() : cookie.indexOf(';'));
+            }
+        }
+        throw new IllegalStateException("Could not log in as " + username + ", got " + r.statusCode());
+    }
+
+    private String fetch(String path, String session) throws IOException, InterruptedException {
+        HttpResponse<String> r = client.send(get(path, session), HttpResponse.BodyHandlers.ofString());
+        if (r.statusCode() != 200) {
+            throw new IllegalStateException("GET " + path + " returned " + r.statusCode());
+        }
+        return r.body();
+    }
+
+    private void call(HttpRequest request) throws IOException, InterruptedException {
+        client.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+
+    private HttpRequest get(String path, String session) {
+        return request(path, session).GET().build();
+    }
+
+    /* a form post, fields are name, value, name, value... */
+    private HttpRequest post(String path, String session, Object... fields) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < fields.length; i += 2) {
+            if (i > 0) {
+                body.append('&');
+            }
+            body.append(fields[i]).append('=').append(encode(String.valueOf(fields[i + 1])));
+        }
+        return request(path, session)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+            .build();
+    }
+
+    private HttpRequest.Builder request(String path, String session) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(URL + path))
+            .timeout(Duration.ofMillis(TIMEOUT_MILLIS));
+        if (session != null) {
+            b.header("Cookie", session);
+        }
+        return b;
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+}
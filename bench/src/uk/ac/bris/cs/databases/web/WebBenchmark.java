@@ -0,0 +1,117 @@
+package uk.ac.bris.cs.databases.web;
+
+import freemarker.template.Configuration;
+import freemarker.template.TemplateModelException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.bris.cs.databases.api.ForumView;
+import uk.ac.bris.cs.databases.api.Result;
+import uk.ac.bris.cs.databases.api.SimplePostView;
+import uk.ac.bris.cs.databases.api.SimpleTopicSummaryView;
+import uk.ac.bris.cs.databases.api.TopicView;
+
+/**
+ * The parts of serving a page that only use the CPU: rendering the
+ * templates or writing the same data as JSON, parsing the query string and
+ * building the views the api returns. Templates are loaded from resources/templates, so run this from
+ * the project directory (ant bench does).
+ *
+ * @author csxdb
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebBenchmark {
+
+    private static final String TEXT =
+        "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
+        + "eiusmod tempor incididunt ut labore et dolore magna aliqua. <b>Ut "
+        + "enim</b> ad minim veniam, quis nostrud exercitation & ullamco.";
+
+    /** Posts on the topic page, topics on the forum page. */
+    @Param({ "10", "100" })
+    public int rows;
+
+    private AbstractHandler handler;
+    private TopicView topic;
+    private ForumView forum;
+
+    @Setup
+    public void setUp() throws IOException, TemplateModelException {
+        Configuration cfg = Templates.load(new File("resources/templates"), false);
+        StaticAssets assets = new StaticAssets();
+        assets.load("/styles.css", "resources/styles.css", "text/css");
+        assets.load("/gridlex.css", "resources/gridlex.css", "text/css");
+        cfg.setSharedVariable("assets", assets.getUrls());
+        ApplicationContext.getInstance().setTemplateConfiguration(cfg);
+        handler = new TopicHandler();
+        topic = buildTopic().getValue();
+        forum = buildForum().getValue();
+        for (View v : new View[] { renderTopic(), renderForum() }) {
+            if (v.getCode() != 200) {
+                throw new IllegalStateException(v.getContents());
+            }
+        }
+    }
+
+    @Benchmark
+    public View renderTopic() {
+        return handler.renderView("TopicView.ftl", topic, "bench", false);
+    }
+
+    @Benchmark
+    public View renderForum() {
+        return handler.renderView("ForumView.ftl", forum, "bench", false);
+    }
+
+    @Benchmark
+    public View topicJson() {
+        return JsonViews.view(200, topic);
+    }
+
+    @Benchmark
+    public View forumJson() {
+        return JsonViews.view(200, forum);
+    }
+
+    @Benchmark
+    public Map<String, String> parseQuery() {
+        return handler.parseQuery("after=150&limit=50&cursor=1500000000000_42&q=some+text");
+    }
+
+    @Benchmark
+    public Result<TopicView> buildTopic() {
+        List<SimplePostView> posts = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            posts.add(new SimplePostView(i, "author" + i, TEXT, "2017-07-14 02:40:00"));
+        }
+        return Result.success(new TopicView(1, 1, "Benchmark topic", posts, null, rows + 1));
+    }
+
+    @Benchmark
+    public Result<ForumView> buildForum() {
+        List<SimpleTopicSummaryView> topics = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            topics.add(new SimpleTopicSummaryView(i, 1, "Topic " + i, i * 3));
+        }
+        return Result.success(new ForumView(1, "Benchmark forum", topics, null, "1500000000000_" + rows));
+    }
+}
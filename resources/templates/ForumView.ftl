@@ -4,14 +4,29 @@
 
 <#list data.topics as t>
 <div class="section">
-<p><b><a href="/topic/${t.topicId}">${t.title}</a></b>
+<p><b><a href="/topic/${t.topicId?c}">${t.title}</a></b>
+(${t.postCount} posts)
 </p>
 </div>
 </#list>
 
+<#if data.pageCursor?? || data.nextPageCursor??>
+<div class="section alt">
+<p>
+<#if data.pageCursor??>
+<a href="/forum/${data.id?c}<#if limit??>?limit=${limit?c}</#if>">Newest topics</a>
+</#if>
+<#if data.nextPageCursor??>
+&nbsp;
+<a href="/forum/${data.id?c}?cursor=${data.nextPageCursor}<#if limit??>&amp;limit=${limit?c}</#if>">Older topics</a>
+</#if>
+</p>
+</div>
+</#if>
+
 <div class="section alt">
 <#if session??>
-<p><a href="/newtopic/${data.id}">Create new topic</a></p>
+<p><a href="/newtopic/${data.id?c}">Create new topic</a></p>
 <#else>
 <p><a href="/people">Log in</a> to create new topics.</p>
 </#if>
@@ -4,7 +4,8 @@
 
 <#list data.data as forum>
     <div class="section">
-    <p><b><a href="/forum/${forum.id}">${forum.title}</a></b></p>
+    <p><b><a href="/forum/${forum.id?c}">${forum.title}</a></b>
+    (${forum.topicCount} topics, ${forum.postCount} posts)</p>
     </div>
 </#list>
 
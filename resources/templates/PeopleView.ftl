@@ -2,17 +2,39 @@
 
 <h1>List of people</h1>
 
+<div class="section alt">
+<form action="/people" method="get">
+<p>Usernames starting with <input type="text" name="prefix" size="10" value="${data.prefix?html}" />
+<input type="submit" value="Search" /></p>
+</form>
+</div>
+
 <div class="section">
-<#list data.data as p>
-<p><span class="key"><a href="/person/${p.key}">${p.value} [${p.key}]</a></span></p>
-<p><a href="/login/${p.key}">(log in as ${p.value})</a></p>
+<#list data.people as p>
+<p><span class="key"><a href="/person/${p.username}">${p.name} [${p.username}]</a></span></p>
+<p><a href="/login/${p.username}">(log in as ${p.name})</a></p>
+<#else>
+<p>No people found.</p>
 </#list>
 <p><a href="/login">(log out)</a></p>
 </div>
 
+<#if data.pageAfter?? || data.nextPageAfter??>
+<div class="section alt">
+<p>
+<#if data.pageAfter??>
+<a href="/people?prefix=${data.prefix?url('UTF-8')}">First page</a>
+</#if>
+<#if data.nextPageAfter??>
+&nbsp;
+<a href="/people?prefix=${data.prefix?url('UTF-8')}&amp;after=${data.nextPageAfter?url('UTF-8')}">Next page</a>
+</#if>
+</p>
+</div>
+</#if>
+
 <div class="section alt">
 <p><a href="/newperson">add person</a></p>
 </div>
 
 <#include "footer.html">
-
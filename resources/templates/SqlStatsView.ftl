@@ -0,0 +1,26 @@
+<#include "header.html">
+
+<h1>SQL statements</h1>
+
+<div class="section alt">
+<p>Slowest first by total time (executing plus reading results), since startup.
+${data.commitCount} commits,
+<#if data.commitCount gt 0>${(data.commitNanos / data.commitCount / 1000000)?string("0.00")} ms mean,</#if>
+${(data.commitMaxNanos / 1000000)?string("0.00")} ms max.</p>
+</div>
+
+<#list data.statements as s>
+<div class="section">
+<p><b>${(s.totalNanos / 1000000)?string("0.0")} ms total</b>:
+${s.executions} runs,
+<#if s.executions gt 0>${(s.execNanos / s.executions / 1000000)?string("0.00")} ms mean execute,</#if>
+${(s.maxNanos / 1000000)?string("0.00")} ms max,
+${(s.fetchNanos / 1000000)?string("0.0")} ms reading ${s.rows} rows<#if s.errors gt 0>,
+${s.errors} errors</#if></p>
+<pre>
+${s.sql?html}
+</pre>
+</div>
+</#list>
+
+<#include "footer.html">
@@ -2,6 +2,30 @@
 
 <h1>Topic: ${data.title?html}</h1>
 
+<#-- a page size the user chose is kept in the links -->
+<#assign pageLimit = "">
+<#if limit??><#assign pageLimit = "&amp;limit=" + limit?c></#if>
+
+<#macro pages>
+<#if data.previousPageAfter?? || data.nextPageAfter??>
+<div class="section alt">
+<p>
+<#if data.previousPageAfter??>
+<a href="/topic/${data.topicId?c}<#if limit??>?limit=${limit?c}</#if>">First</a>
+&nbsp;
+<a href="/topic/${data.topicId?c}?after=${data.previousPageAfter?c}${pageLimit}">Previous</a>
+</#if>
+<#if data.nextPageAfter??>
+&nbsp;
+<a href="/topic/${data.topicId?c}?after=${data.nextPageAfter?c}${pageLimit}">Next</a>
+</#if>
+</p>
+</div>
+</#if>
+</#macro>
+
+<@pages/>
+
 <#list data.posts as p>
 <div class="section">
 <p>Post #${p.postNumber} by ${p.author} at ${p.postedAt}
@@ -14,10 +38,12 @@ ${p.text?html}
 </div>
 </#list>
 
+<@pages/>
+
 <div class="section alt">
 <p>
 <#if session??>
-<a href="/newpost/${data.topicId}">Reply</a>
+<a href="/newpost/${data.topicId?c}">Reply</a>
 <#else>
 <a href="/people">Log in</a> to reply.
 </#if>
@@ -0,0 +1,15 @@
+-- Number each post within its topic so that a page of a topic can be
+-- read by keyset (postNumber > ?) straight off an index instead of
+-- fetching the whole topic.
+-- Requires MariaDB 10.2+ for ROW_NUMBER().
+
+ALTER TABLE Post ADD COLUMN postNumber INTEGER;
+
+UPDATE Post
+  JOIN (SELECT id, ROW_NUMBER() OVER (PARTITION BY topicId ORDER BY id) AS n
+          FROM Post) numbered ON numbered.id = Post.id
+   SET Post.postNumber = numbered.n;
+
+ALTER TABLE Post MODIFY postNumber INTEGER NOT NULL;
+
+CREATE UNIQUE INDEX PostTopicNumber ON Post (topicId, postNumber);
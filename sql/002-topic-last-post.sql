@@ -0,0 +1,12 @@
+-- Record when each topic last had a post so that a forum's topics can be
+-- listed most recently active first, a page at a time, straight off the
+-- (forumId, lastPostAt, id) index.
+
+ALTER TABLE Topic ADD COLUMN lastPostAt DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP;
+
+UPDATE Topic
+  JOIN (SELECT topicId, MAX(timePosted) AS lastPost
+          FROM Post GROUP BY topicId) latest ON latest.topicId = Topic.id
+   SET Topic.lastPostAt = latest.lastPost;
+
+CREATE INDEX TopicForumActivity ON Topic (forumId, lastPostAt, id);
@@ -0,0 +1,19 @@
+-- Keep post and topic counts on the Topic and Forum rows so that counting
+-- a topic's posts, or showing counts on the forum pages, is a row read
+-- rather than a scan of Post. The write paths in Queries keep them up to
+-- date in the same transaction as the insert.
+
+ALTER TABLE Topic ADD COLUMN postCount INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE Forum ADD COLUMN topicCount INTEGER NOT NULL DEFAULT 0,
+                  ADD COLUMN postCount INTEGER NOT NULL DEFAULT 0;
+
+UPDATE Topic
+  JOIN (SELECT topicId, COUNT(*) AS n
+          FROM Post GROUP BY topicId) counted ON counted.topicId = Topic.id
+   SET Topic.postCount = counted.n;
+
+UPDATE Forum
+  JOIN (SELECT forumId, COUNT(*) AS topics, SUM(postCount) AS posts
+          FROM Topic GROUP BY forumId) counted ON counted.forumId = Forum.id
+   SET Forum.topicCount = counted.topics, Forum.postCount = counted.posts;
@@ -23,7 +23,8 @@ public interface APIProvider {
      * (note that usernames are unique).
      * 
      * Difficulty: *
-     * Used by: /people (PeopleHandler)
+     * Used by: nothing in the web UI any more, /people pages through
+     * getPeople instead
      *
      * The implementation for this is provided.
      *
@@ -40,6 +41,20 @@ public interface APIProvider {
      * Used by: /person/:id (PersonHandler)
      */
     public Result<PersonView> getPersonView(String username);
+
+    /**
+     * Get one page of people, ordered by username.
+     * @param prefix - only list usernames starting with this, null or empty
+     * for everyone.
+     * @param afterUsername - where the page starts: null for the first page,
+     * otherwise the nextPageAfter of the page before.
+     * @param limit - the most people to return, at least 1.
+     * @return Up to limit people after afterUsername, failure if the limit
+     * is out of range, fatal on database errors.
+     *
+     * Used by: /people?prefix=p&after=u (PeopleHandler)
+     */
+    public Result<PersonListView> getPeople(String prefix, String afterUsername, int limit);
        
     /**
      * Create a new person.
@@ -101,6 +116,30 @@ public interface APIProvider {
      * Used by: /forum/:id (ForumHandler)
      */
     public Result<ForumView> getForum(int id);
+
+    /**
+     * Get one page of a forum's topics, most recently active first.
+     * @param id - the id of the forum to get.
+     * @param cursor - where the page starts: null for the first page,
+     * otherwise the nextPageCursor of the page before. Cursors stay valid
+     * while new posts move topics to the front.
+     * @param limit - the most topics to return, at least 1.
+     * @return A view of this forum with up to limit topics if it exists,
+     * otherwise failure (also for a malformed cursor); fatal on database errors.
+     *
+     * Used by: /forum/:id?cursor=c (ForumHandler)
+     */
+    public Result<ForumView> getForum(int id, String cursor, int limit);
+
+    /**
+     * Get the version of a forum's pages without reading them.
+     * @param id - the id of the forum.
+     * @return A version that changes whenever a topic or post is added to
+     * the forum if it exists, otherwise failure; fatal on database errors.
+     *
+     * Used by: /forum/:id (ForumHandler) for conditional requests
+     */
+    public Result<EntityVersion> getForumVersion(int id);
     
     /**
      * Get a view of a topic.
@@ -113,6 +152,30 @@ public interface APIProvider {
      */
     public Result<TopicView> getTopic(int topicId);
 
+    /**
+     * Get the version of a topic's pages without reading them.
+     * @param topicId - the topic.
+     * @return A version that changes whenever a post is added to the topic
+     * if it exists, otherwise failure; fatal on database errors.
+     *
+     * Used by: /topic/:id (TopicHandler) for conditional requests
+     */
+    public Result<EntityVersion> getTopicVersion(int topicId);
+
+    /**
+     * Get one page of a topic, for topics too long to show at once.
+     * @param topicId - the topic to get.
+     * @param afterPostNumber - only posts numbered after this are returned,
+     * 0 for the first page.
+     * @param limit - the most posts to return, at least 1.
+     * @return The topic view holding up to limit posts in order, with the
+     * previous/next page positions filled in; failure if the topic does not
+     * exist or has no posts after afterPostNumber, fatal on database errors.
+     *
+     * Used by: /topic/:id?after=n (TopicHandler)
+     */
+    public Result<TopicView> getTopic(int topicId, int afterPostNumber, int limit);
+
     /**
      * Create a post in an existing topic.
      * @param topicId - the id of the topic to post in. Must refer to
@@ -154,5 +217,15 @@ public interface APIProvider {
      * Not used in web interface.
      */
     public Result<Integer> countPostsInTopic(int topicId);
+
+    /**
+     * Count the posts in every topic of a forum in one go.
+     * @param forumId - the forum to look at.
+     * @return A map topicId -> number of posts with one entry per topic in
+     * the forum if it exists, otherwise a failure.
+     *
+     * Not used in web interface (the forum views carry the counts).
+     */
+    public Result<Map<Integer, Integer>> countPostsInTopics(int forumId);
     
 }
@@ -0,0 +1,39 @@
+package uk.ac.bris.cs.databases.api;
+
+import uk.ac.bris.cs.databases.util.Params;
+
+/**
+ * Cheap version stamp of a forum or topic, which changes whenever anything
+ * shown on its page changes. Used to answer conditional requests without
+ * fetching the page.
+ * @author ac16888
+ */
+public class EntityVersion {
+
+    /* Opaque tag, equal tags mean the same content. */
+    private final String tag;
+
+    /* Time of the last change in milliseconds, 0 if not known. */
+    private final long lastModified;
+
+    public EntityVersion(String tag, long lastModified) {
+        Params.cannotBeEmpty(tag);
+
+        this.tag = tag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the tag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the lastModified time in milliseconds, 0 if not known
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
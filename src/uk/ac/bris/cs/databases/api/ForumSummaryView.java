@@ -13,12 +13,24 @@ public class ForumSummaryView {
     
     /* The id of this forum. */
     private final int id;
+
+    /* The number of topics in this forum. */
+    private final int topicCount;
+
+    /* The number of posts in all topics of this forum. */
+    private final int postCount;
     
     public ForumSummaryView(int id, String title) {
+        this(id, title, 0, 0);
+    }
+
+    public ForumSummaryView(int id, String title, int topicCount, int postCount) {
         Params.cannotBeEmpty(title);
         
         this.id = id;
         this.title = title;
+        this.topicCount = topicCount;
+        this.postCount = postCount;
     }
     
     /**
@@ -33,5 +45,19 @@ public class ForumSummaryView {
      */
     public int getId() {
         return id;
-    }  
+    }
+
+    /**
+     * @return the topicCount
+     */
+    public int getTopicCount() {
+        return topicCount;
+    }
+
+    /**
+     * @return the postCount
+     */
+    public int getPostCount() {
+        return postCount;
+    }
 }
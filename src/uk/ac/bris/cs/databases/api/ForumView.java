@@ -14,15 +14,33 @@ public class ForumView {
     /* The title of this forum. */
     private final String title;
     
-    /* The topics in this forum, ordered by title. */
+    /* The topics in this forum, ordered by title (or by last activity
+     * when paged). */
     private final List<SimpleTopicSummaryView> topics;
 
+    /* For a paged view, the cursor this page was read from, null for the
+     * first page. */
+    private final String pageCursor;
+
+    /* For a paged view, the cursor of the next page, null on the last page. */
+    private final String nextPageCursor;
+
     public ForumView(int id,
                      String title,
                      List<SimpleTopicSummaryView> topics) {
+        this(id, title, topics, null, null);
+    }
+
+    public ForumView(int id,
+                     String title,
+                     List<SimpleTopicSummaryView> topics,
+                     String pageCursor,
+                     String nextPageCursor) {
         this.id = id;
         this.title = title;
         this.topics = topics;
+        this.pageCursor = pageCursor;
+        this.nextPageCursor = nextPageCursor;
     }
 
     /**
@@ -45,5 +63,19 @@ public class ForumView {
     public int getId() {
         return id;
     }
+
+    /**
+     * @return the pageCursor, null on the first page
+     */
+    public String getPageCursor() {
+        return pageCursor;
+    }
+
+    /**
+     * @return the nextPageCursor, null on the last page
+     */
+    public String getNextPageCursor() {
+        return nextPageCursor;
+    }
     
 }
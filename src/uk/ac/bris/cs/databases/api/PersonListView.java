@@ -0,0 +1,60 @@
+package uk.ac.bris.cs.databases.api;
+
+import java.util.List;
+
+/**
+ * One page of the people directory, in username order.
+ * @author ac16888
+ */
+public class PersonListView {
+
+    /* Only usernames starting with this are listed, "" for everyone. */
+    private final String prefix;
+
+    /* The people on this page, ordered by username. */
+    private final List<PersonView> people;
+
+    /* The username this page starts after, null for the first page. */
+    private final String pageAfter;
+
+    /* The username the next page starts after, null on the last page. */
+    private final String nextPageAfter;
+
+    public PersonListView(String prefix,
+                          List<PersonView> people,
+                          String pageAfter,
+                          String nextPageAfter) {
+        this.prefix = prefix;
+        this.people = people;
+        this.pageAfter = pageAfter;
+        this.nextPageAfter = nextPageAfter;
+    }
+
+    /**
+     * @return the prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the people
+     */
+    public List<PersonView> getPeople() {
+        return people;
+    }
+
+    /**
+     * @return the pageAfter, null on the first page
+     */
+    public String getPageAfter() {
+        return pageAfter;
+    }
+
+    /**
+     * @return the nextPageAfter, null on the last page
+     */
+    public String getNextPageAfter() {
+        return nextPageAfter;
+    }
+}
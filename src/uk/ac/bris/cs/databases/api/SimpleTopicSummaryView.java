@@ -16,14 +16,23 @@ public class SimpleTopicSummaryView {
     
     /* The title of this topic. */
     private final String title;
+
+    /* The number of posts in this topic. */
+    private final int postCount;
     
     public SimpleTopicSummaryView(int topicId, int forumId, String title) {
+        this(topicId, forumId, title, 0);
+    }
+
+    public SimpleTopicSummaryView(int topicId, int forumId, String title,
+                                  int postCount) {
         
         Params.cannotBeEmpty(title);
         
         this.topicId = topicId;
         this.forumId = forumId;
         this.title = title;
+        this.postCount = postCount;
     }
 
     /**
@@ -47,4 +56,11 @@ public class SimpleTopicSummaryView {
         return title;
     }
 
+    /**
+     * @return the postCount
+     */
+    public int getPostCount() {
+        return postCount;
+    }
+
 }
@@ -11,22 +11,42 @@ public class TopicView {
     
     /* The id of this topic. */
     private final int topicId;
+
+    /* The id of the forum that contains this topic, 0 if not known. */
+    private final int forumId;
     
     /* The title of this topic. */
     private final String title;
     
     /* The posts in this topic, in the order that they were created. */
     private final List<SimplePostView> posts;
+
+    /* For a paged view, the afterPostNumber of the previous page, or null
+     * if this is the first page. */
+    private final Integer previousPageAfter;
+
+    /* For a paged view, the afterPostNumber of the next page, or null if
+     * this is the last page. */
+    private final Integer nextPageAfter;
     
     public TopicView(int topicId, String title,
             List<SimplePostView> posts) {
+        this(topicId, 0, title, posts, null, null);
+    }
+
+    public TopicView(int topicId, int forumId, String title,
+            List<SimplePostView> posts,
+            Integer previousPageAfter, Integer nextPageAfter) {
         
         Params.cannotBeEmpty(title);
         Params.cannotBeEmpty(posts);
 
         this.topicId = topicId;
+        this.forumId = forumId;
         this.title = title;
         this.posts = posts;
+        this.previousPageAfter = previousPageAfter;
+        this.nextPageAfter = nextPageAfter;
     }
 
     public List<SimplePostView> getPosts() {
@@ -40,11 +60,32 @@ public class TopicView {
         return topicId;
     }
 
+    /**
+     * @return the forumId
+     */
+    public int getForumId() {
+        return forumId;
+    }
+
 
     /**
      * @return the title
      */
     public String getTitle() {
         return title;
-    }  
+    }
+
+    /**
+     * @return the previousPageAfter, null on the first page
+     */
+    public Integer getPreviousPageAfter() {
+        return previousPageAfter;
+    }
+
+    /**
+     * @return the nextPageAfter, null on the last page
+     */
+    public Integer getNextPageAfter() {
+        return nextPageAfter;
+    }
 }
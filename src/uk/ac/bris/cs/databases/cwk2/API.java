@@ -3,15 +3,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.EntityVersion;
 import uk.ac.bris.cs.databases.api.ForumSummaryView;
 import uk.ac.bris.cs.databases.api.ForumView;
 import uk.ac.bris.cs.databases.api.Result;
+import uk.ac.bris.cs.databases.api.PersonListView;
 import uk.ac.bris.cs.databases.api.PersonView;
 import uk.ac.bris.cs.databases.api.SimplePostView;
 import uk.ac.bris.cs.databases.api.SimpleTopicSummaryView;
@@ -34,18 +36,36 @@ import uk.ac.bris.cs.databases.api.TopicView;
  * @author csxdb
  */
 public class API implements APIProvider {
-    private final Connection c;
+    private final ConnectionPool pool; // each call borrows its own connection from here
     private final Queries query = new Queries(); // contains general SQL queries for this database schema
-    public API(Connection c) {
-        this.c = c;
+    private final UserIdCache userIds; // username -> Person.id, saves a lookup on every write
+    private GroupCommitWriter postWriter; // null unless group commit is turned on
+    public API(ConnectionPool pool) {
+        this(pool, new UserIdCache(10000, 5000));
+    }
+
+    public API(ConnectionPool pool, UserIdCache userIds) {
+        this.pool = pool;
+        this.userIds = userIds;
+    }
+
+    /**
+     * @param postWriter - batches createPost writes into shared commits,
+     * null (the default) for one commit per post
+     */
+    public void setGroupCommitWriter(GroupCommitWriter postWriter) {
+        this.postWriter = postWriter;
     }
 
     /* predefined methods */
 
     @Override
     public Result<Map<String, String>> getUsers() {
-        try (Statement s = c.createStatement()) {
-            ResultSet r = s.executeQuery("SELECT name, username FROM Person");
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT name, username FROM Person"
+        )) {
+            ResultSet r = p.executeQuery();
             Map<String, String> data = new HashMap<>();
             while (r.next()) {
                 data.put(r.getString("username"), r.getString("name"));
@@ -72,18 +92,18 @@ public class API implements APIProvider {
         if (username == null || username.equals("") || !(checkLength(username, 10))) {
             return Result.failure("Username cannot be empty or exceed 10 characters.");
         }
-        try {
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            Connection c = work.connection();
             /* first check that the user does not exist - boolean and is false is user is an existing user.
-            query needed to ensure username is not duplicated */
-            if(!query.checkNotExistingUser(username, c)){
+            query needed to ensure username is not duplicated (unless we already know their id) */
+            if(userIds.get(username) != null || !query.checkNotExistingUser(username, c)){
                 return Result.failure("User with username" + username + "already exists.");
             }
+            int personId = query.insertPerson(name, username, studentId, c);
+            work.commit();
+            userIds.put(username, personId); // they will probably post soon
         } catch (SQLException e) {
-            return Result.fatal(e.getMessage());
-        }
-        try { query.insertPerson(name, username, studentId, c);
-        } catch (SQLException e) {
-            return rollBack(e);
+            return writeFailed(e);
         }
         return Result.success();
     }
@@ -95,7 +115,8 @@ public class API implements APIProvider {
         if (username == null || username.equals("")) {
             return Result.failure("Username cannot be empty.");
         }
-        try (PreparedStatement p = c.prepareStatement(
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
         "SELECT name, stuId FROM Person WHERE username = ?"
         )) {
             p.setString(1, username);
@@ -115,17 +136,56 @@ public class API implements APIProvider {
         }
     }
 
+    @Override
+    /* keyset pagination on the unique username index, the prefix is a range on the same index
+    so a page costs the same however many people there are */
+    public Result<PersonListView> getPeople(String prefix, String afterUsername, int limit) {
+        if (limit < 1) { return Result.failure("Page size must be at least 1."); }
+        if (prefix == null) prefix = "";
+        // usernames sort after the empty string, so "" starts from the beginning
+        String after = afterUsername == null ? "" : afterUsername;
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT name, username, stuId FROM Person " +
+                "WHERE username LIKE ? ESCAPE '!' AND username > ? " +
+                "ORDER BY username LIMIT ?"
+        )) {
+            p.setString(1, escapeLike(prefix) + "%");
+            p.setString(2, after);
+            p.setInt(3, limit + 1); // one extra to tell if there is a next page
+            p.setFetchSize(limit + 1); // the whole page in one fetch, never more
+            ResultSet r = p.executeQuery();
+            ArrayList<PersonView> people = new ArrayList<>();
+            String next = null;
+            while (r.next()) {
+                if (people.size() == limit) {
+                    next = people.get(limit - 1).getUsername();
+                    break;
+                }
+                String stuId = r.getString("stuId");
+                people.add(new PersonView(r.getString("name"), r.getString("username"),
+                        stuId == null ? "" : stuId));
+            }
+            return Result.success(new PersonListView(prefix, people, afterUsername, next));
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
     @Override
     public Result<List<ForumSummaryView>> getForums() {
-        try (PreparedStatement p = c.prepareStatement(
-        "SELECT * FROM Forum"
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT id, title, topicCount, postCount FROM Forum"
         )) {
             ArrayList<ForumSummaryView> forumList = new ArrayList<>();
             ResultSet r = p.executeQuery();
             while (r.next()) {
-                int id = r.getInt(1); // id is the first column in the table
-                String title = r.getString(2); // title of the forum is second
-                ForumSummaryView forumSummaryView = new ForumSummaryView(id, title);
+                int id = r.getInt("id");
+                String title = r.getString("title");
+                // counts are kept up to date by the writes, no need to count here
+                ForumSummaryView forumSummaryView = new ForumSummaryView(id, title,
+                        r.getInt("topicCount"), r.getInt("postCount"));
                 forumList.add(forumSummaryView); // returns a list of ForumSummaryView objects
             }
             return Result.success(forumList);
@@ -136,29 +196,57 @@ public class API implements APIProvider {
 
     @Override
     public Result<Integer> countPostsInTopic(int topicId) {
-        try (PreparedStatement p = c.prepareStatement(
-                // post.id unique per post so used to select a count of all posts
-        "SELECT Count(Post.id) FROM Post WHERE topicId = ?"
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+                // maintained by insertPost, so one row read rather than counting the posts
+        "SELECT postCount FROM Topic WHERE id = ?"
         )) {
             p.setInt(1, topicId);
             ResultSet r = p.executeQuery();
-            Integer postCount = r.getInt(1);
+            if (!r.next()) { return Result.failure("Topic does not exist."); }
+            Integer postCount = r.getInt("postCount");
             return Result.success(postCount);
         } catch (SQLException e) {
             return Result.fatal(e.getMessage());
         }
     }
 
+    @Override
+    public Result<Map<Integer, Integer>> countPostsInTopics(int forumId) {
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+                // left join so an empty forum still gives a row, telling it apart from a missing one
+        "SELECT Topic.id AS topicId, Topic.postCount AS postCount " +
+                "FROM Forum LEFT JOIN Topic ON Topic.forumId = Forum.id " +
+                "WHERE Forum.id = ?"
+        )) {
+            p.setInt(1, forumId);
+            ResultSet r = p.executeQuery();
+            if (!r.next()) { return Result.failure("Forum does not exist."); }
+            Map<Integer, Integer> counts = new HashMap<>();
+            if (r.getString("topicId") != null) {
+                do {
+                    counts.put(r.getInt("topicId"), r.getInt("postCount"));
+                } while (r.next());
+            }
+            return Result.success(counts);
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
     @Override
     // this is executed in one query by joining the post and person table
     public Result<TopicView> getTopic(int topicId) {
-        try (PreparedStatement p = c.prepareStatement(
-        "SELECT title, Person.name AS name, " +
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT title, forumId, Person.name AS name, " +
                     "Post.postText AS text, Post.timePosted AS date " +
                     "FROM Topic " +
                     "INNER JOIN Post ON Post.topicId = Topic.id " +
                     "INNER JOIN Person ON Person.id = Post.personId " +
-                    "WHERE Topic.id = ?"
+                    "WHERE Topic.id = ? " +
+                    "ORDER BY Post.postNumber"
         )) {
             p.setInt(1, topicId);
             ResultSet r = p.executeQuery();
@@ -167,6 +255,7 @@ public class API implements APIProvider {
                 return Result.failure("Topic does not exist.");
             }
             String title = r.getString("title");
+            int forumId = r.getInt("forumId");
             ArrayList<SimplePostView> postView = new ArrayList<>();
             int postNum = 1; // used to count the number of posts in the topic, iterates through results
            /* do while loop to account for r.next() already being called - no guard to check
@@ -179,7 +268,60 @@ public class API implements APIProvider {
                 postView.add(simplePostView); // list of SimplePostView returned, add here
                 postNum++;
             } while(r.next());
-            TopicView topicView = new TopicView(topicId, title, postView);
+            TopicView topicView = new TopicView(topicId, forumId, title, postView, null, null);
+            return Result.success(topicView);
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
+    @Override
+    /* keyset pagination - reads only the requested posts off the (topicId, postNumber)
+    index however deep the page is, one extra row is fetched to tell if there is a next page */
+    public Result<TopicView> getTopic(int topicId, int afterPostNumber, int limit) {
+        if (afterPostNumber < 0) { return Result.failure("Post number cannot be negative."); }
+        if (limit < 1) { return Result.failure("Page size must be at least 1."); }
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT title, forumId, Post.postNumber AS postNumber, Person.name AS name, " +
+                    "Post.postText AS text, Post.timePosted AS date " +
+                    "FROM Topic " +
+                    "LEFT JOIN Post ON Post.topicId = Topic.id AND Post.postNumber > ? " +
+                    "LEFT JOIN Person ON Person.id = Post.personId " +
+                    "WHERE Topic.id = ? " +
+                    "ORDER BY Post.postNumber " +
+                    "LIMIT ?"
+        )) {
+            p.setInt(1, afterPostNumber);
+            p.setInt(2, topicId);
+            p.setInt(3, limit + 1);
+            ResultSet r = p.executeQuery();
+            // no row at all means no topic, a row without a post means we are past the end
+            if(!r.next()){
+                return Result.failure("Topic does not exist.");
+            }
+            if(r.getString("postNumber") == null){
+                return Result.failure("Topic has no posts after post " + afterPostNumber + ".");
+            }
+            String title = r.getString("title");
+            int forumId = r.getInt("forumId");
+            ArrayList<SimplePostView> postView = new ArrayList<>(Math.min(limit, 1000));
+            boolean more = false;
+            do{
+                if(postView.size() == limit){
+                    more = true; // the extra row, only there if a next page exists
+                    break;
+                }
+                int postNum = r.getInt("postNumber");
+                String author = r.getString("name");
+                String text = r.getString("text");
+                String date = r.getString("date");
+                postView.add(new SimplePostView(postNum, author, text, date));
+            } while(r.next());
+            // post numbers are dense, so the previous page starts limit posts back
+            Integer previous = afterPostNumber > 0 ? Math.max(0, afterPostNumber - limit) : null;
+            Integer next = more ? postView.get(postView.size() - 1).getPostNumber() : null;
+            TopicView topicView = new TopicView(topicId, forumId, title, postView, previous, next);
             return Result.success(topicView);
         } catch (SQLException e) {
             return Result.fatal(e.getMessage());
@@ -197,23 +339,26 @@ public class API implements APIProvider {
             return Result.failure("Please ensure title is less than 100 characters.");
         }
         // check that title does not already exist in forum despite forum title being unique
-        try{
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            Connection c = work.connection();
             // to allow user targeted error rather than SQL error - could be removed as title is UNIQUE
             if(!query.checkNotExistingForum(title, c)){
                 return Result.failure("Forum named " + title + " already exists");
             }
             query.insertForum(title, c); //inserts new forum based on title in DB
-        }
-        catch (SQLException e) {
-            return rollBack(e);
+            work.commit();
+        } catch (SQLException e) {
+            return writeFailed(e);
         }
         return Result.success();
     }
 
     @Override
     public Result<ForumView> getForum(int id) {
-        try (PreparedStatement p = c.prepareStatement(
-        "SELECT Forum.title AS forumTitle, Topic.id AS topicId, Topic.title AS topicTitle " +
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT Forum.title AS forumTitle, Topic.id AS topicId, Topic.title AS topicTitle, " +
+                 "Topic.postCount AS postCount " +
                  "FROM Topic " +
                  "RIGHT JOIN Forum ON Forum.id = Topic.forumId " +
                  "WHERE Forum.id = ?"
@@ -229,7 +374,8 @@ public class API implements APIProvider {
                 do{
                     int topicId = r.getInt("topicId");
                     String topicTitle = r.getString("topicTitle");
-                    SimpleTopicSummaryView simpleTopicView = new SimpleTopicSummaryView(topicId, id, topicTitle);
+                    SimpleTopicSummaryView simpleTopicView = new SimpleTopicSummaryView(topicId, id, topicTitle,
+                            r.getInt("postCount"));
                     summaryView.add(simpleTopicView);
                 } while(r.next());
             }
@@ -240,6 +386,111 @@ public class API implements APIProvider {
         }
     }
 
+    @Override
+    /* keyset pagination on (lastPostAt, id) - the cursor is the last topic of the previous
+    page, so each page is one range read of the (forumId, lastPostAt, id) index */
+    public Result<ForumView> getForum(int id, String cursor, int limit) {
+        if (limit < 1) { return Result.failure("Page size must be at least 1."); }
+        Timestamp afterTime = null;
+        int afterId = 0;
+        if (cursor != null) {
+            int split = cursor.indexOf('_');
+            try {
+                afterTime = new Timestamp(Long.parseLong(cursor.substring(0, split)));
+                afterId = Integer.parseInt(cursor.substring(split + 1));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                return Result.failure("Invalid page cursor.");
+            }
+        }
+        // the first page has no cursor to start after, so it is its own statement
+        // rather than one compared against a made up timestamp DATETIME can not hold
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT Forum.title AS forumTitle, Topic.id AS topicId, Topic.title AS topicTitle, " +
+                 "Topic.lastPostAt AS lastPostAt, Topic.postCount AS postCount " +
+                 "FROM Forum " +
+                 "LEFT JOIN Topic ON Topic.forumId = Forum.id " +
+                 (afterTime == null ? "" :
+                 "AND (Topic.lastPostAt < ? OR (Topic.lastPostAt = ? AND Topic.id < ?)) ") +
+                 "WHERE Forum.id = ? " +
+                 "ORDER BY Topic.lastPostAt DESC, Topic.id DESC " +
+                 "LIMIT ?"
+        )) {
+            int i = 1;
+            if (afterTime != null) {
+                p.setTimestamp(i++, afterTime);
+                p.setTimestamp(i++, afterTime);
+                p.setInt(i++, afterId);
+            }
+            p.setInt(i++, id);
+            p.setInt(i, limit + 1); // one extra to tell if there is a next page
+            ResultSet r = p.executeQuery();
+            if(!r.next()) { return Result.failure("Forum does not exist."); }
+            String forumTitle = r.getString("forumTitle");
+            ArrayList<SimpleTopicSummaryView> summaryView = new ArrayList<>();
+            String nextCursor = null;
+            // no topic on the row means the forum is empty or we are past the end
+            if(r.getString("topicId") != null){
+                Timestamp lastTime = null;
+                do{
+                    if(summaryView.size() == limit){
+                        SimpleTopicSummaryView last = summaryView.get(limit - 1);
+                        nextCursor = lastTime.getTime() + "_" + last.getTopicId();
+                        break;
+                    }
+                    int topicId = r.getInt("topicId");
+                    String topicTitle = r.getString("topicTitle");
+                    lastTime = r.getTimestamp("lastPostAt");
+                    summaryView.add(new SimpleTopicSummaryView(topicId, id, topicTitle,
+                            r.getInt("postCount")));
+                } while(r.next());
+            }
+            ForumView forumView = new ForumView(id, forumTitle, summaryView, cursor, nextCursor);
+            return Result.success(forumView);
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
+    @Override
+    /* posts and topics are never edited or deleted, so the counters maintained by the
+    writes are a complete version; the latest lastPostAt comes off the (forumId, lastPostAt) index */
+    public Result<EntityVersion> getForumVersion(int id) {
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT topicCount, postCount, " +
+                "(SELECT MAX(lastPostAt) FROM Topic WHERE forumId = ?) AS lastPostAt " +
+                "FROM Forum WHERE id = ?"
+        )) {
+            p.setInt(1, id);
+            p.setInt(2, id);
+            ResultSet r = p.executeQuery();
+            if (!r.next()) { return Result.failure("Forum does not exist."); }
+            Timestamp lastPostAt = r.getTimestamp("lastPostAt");
+            String tag = "f" + id + "." + r.getInt("topicCount") + "." + r.getInt("postCount");
+            return Result.success(new EntityVersion(tag,
+                    lastPostAt == null ? 0 : lastPostAt.getTime()));
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
+    @Override
+    public Result<EntityVersion> getTopicVersion(int topicId) {
+        try (Connection c = pool.getConnection();
+             PreparedStatement p = c.prepareStatement(
+        "SELECT postCount, lastPostAt FROM Topic WHERE id = ?"
+        )) {
+            p.setInt(1, topicId);
+            ResultSet r = p.executeQuery();
+            if (!r.next()) { return Result.failure("Topic does not exist."); }
+            String tag = "t" + topicId + "." + r.getInt("postCount");
+            return Result.success(new EntityVersion(tag, r.getTimestamp("lastPostAt").getTime()));
+        } catch (SQLException e) {
+            return Result.fatal(e.getMessage());
+        }
+    }
+
     @Override
     public Result createPost(int topicId, String username, String text) {
         Integer personId;
@@ -251,19 +502,33 @@ public class API implements APIProvider {
         if(!checkLength(text, 8000)){
             return Result.failure("Post length is too long, maximum 8000 characters allowed.");
         }
+        if (postWriter != null) {
+            // the lookup is done before queueing so no connection is held while waiting
+            try {
+                personId = lookupUserId(username);
+            } catch (SQLException e) {
+                return Result.fatal(e.getMessage());
+            }
+            if(personId == null){
+                return Result.failure("User does not exist.");
+            }
+            return postWriter.submit(topicId, personId, text);
+        }
         /* first checks that user exists and then gets their id number to create the post
         as the user id is necessary, also checks that valid user (no additional queries needed) */
-        try {
-            personId = query.getUserId(username, c);
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            Connection c = work.connection();
+            personId = lookupUserId(username, c);
             if(personId == null){
                 return Result.failure("User does not exist."); // returns null if the username isnt found
             }
-        }catch (SQLException e) {
-            return Result.fatal(e.getMessage());
-        }
-        try { query.insertPost(text, personId, topicId, c); //insert the data in to post table
+            //insert the data in to post table, moving the topic and forum counts on with it
+            if(!query.insertPost(text, personId, topicId, c)){
+                return Result.failure("Topic does not exist.");
+            }
+            work.commit();
         } catch (SQLException e) {
-            return rollBack(e);
+            return writeFailed(e);
         }
         return Result.success();
     }
@@ -282,24 +547,24 @@ public class API implements APIProvider {
         if(!checkLength(title, 100)){ return Result.failure("Title cannot exceed 100 characters."); }
         /* checks for existing user and gets the user id at the same time, checks existing user
         as already includes a need to select user id*/
-        try {
-            personId = query.getUserId(username, c);
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            Connection c = work.connection();
+            personId = lookupUserId(username, c);
             if(personId == null){
                 return Result.failure("User does not exist."); // returns null if the username isnt found
             }
-        } catch (SQLException e) {
-            return Result.fatal(e.getMessage());
-        }
-        /* below are the execution queries - there is no check for valid forum to remove
-        * redunant queries in the system. due to the forumId FK this will be checked
-        * by the SQLException if there is an error when clicking on a forum that does not exist*/
-        try {
-            query.insertTopic(title, forumId, personId, c);
-            topicId = query.getTopicId(c);
+            /* below are the execution queries - there is no separate check for a valid forum,
+            * insertTopic finds out when it bumps the forum's topic count.
+            * topic and first post commit together, so there is never a topic without a post */
+            Integer newTopicId = query.insertTopic(title, forumId, personId, c);
+            if(newTopicId == null){
+                return Result.failure("Forum does not exist.");
+            }
+            topicId = newTopicId;
             query.insertPost(text, personId, topicId, c);
-        }
-        catch (SQLException e) {
-            return rollBack(e);
+            work.commit();
+        } catch (SQLException e) {
+            return writeFailed(e);
         }
         return Result.success();
     }
@@ -320,15 +585,59 @@ public class API implements APIProvider {
     }
 
     /**
-     * Excutes the rollback after catching the exception to avoid duplicated code
+     * Escape the LIKE wildcards in user input, for use with ESCAPE '!'
+     * @param s - the literal text to match
+     * @return s with %, _ and ! escaped
+     */
+    private static String escapeLike(String s){
+        return s.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    /**
+     * As lookupUserId(username, c), only borrowing a connection if the cache
+     * can not answer
+     */
+    private Integer lookupUserId(String username) throws SQLException {
+        Integer personId = userIds.get(username);
+        if (personId != null || userIds.isKnownMissing(username)) {
+            return personId;
+        }
+        try (Connection c = pool.getConnection()) {
+            return lookupUserId(username, c);
+        }
+    }
+
+    /**
+     * Get the Person.id for a username, from the cache where possible so that
+     * writes by known users skip the lookup query. Usernames found not to exist
+     * are also cached for a short while.
+     * @param username - the username to look up
+     * @param c - connection to query on if the cache cannot answer
+     * @return Integer, the personId (null if the user is not found)
+     */
+    private Integer lookupUserId(String username, Connection c) throws SQLException {
+        Integer personId = userIds.get(username);
+        if (personId != null || userIds.isKnownMissing(username)) {
+            return personId;
+        }
+        personId = query.getUserId(username, c);
+        if (personId == null) {
+            userIds.putMissing(username);
+        } else {
+            userIds.put(username, personId);
+        }
+        return personId;
+    }
+
+    /**
+     * Result for a write whose unit of work failed, by then everything it did
+     * has been rolled back (or the rollback failure is attached as suppressed)
      * @param e - the SQLException that has been caught
      * @return Result type with appropriate message
      */
-    private Result rollBack(SQLException e){
-        try {
-            c.rollback();
-        } catch (SQLException f) {
-            return Result.fatal("SQL error on rollback - [" + f +
+    private Result writeFailed(SQLException e){
+        if (e.getSuppressed().length > 0) {
+            return Result.fatal("SQL error on rollback - [" + e.getSuppressed()[0] +
                     "] from handling exception " + e);
         }
         return Result.fatal(e.getMessage());
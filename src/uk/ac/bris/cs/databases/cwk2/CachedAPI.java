@@ -0,0 +1,351 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.EntityVersion;
+import uk.ac.bris.cs.databases.api.ForumSummaryView;
+import uk.ac.bris.cs.databases.api.ForumView;
+import uk.ac.bris.cs.databases.api.PersonListView;
+import uk.ac.bris.cs.databases.api.PersonView;
+import uk.ac.bris.cs.databases.api.Result;
+import uk.ac.bris.cs.databases.api.SimplePostView;
+import uk.ac.bris.cs.databases.api.SimpleTopicSummaryView;
+import uk.ac.bris.cs.databases.api.TopicView;
+
+/**
+ * Read-through cache in front of another APIProvider for the forum list,
+ * forum pages and topic pages, which are read far more often than written.
+ *
+ * Entries are evicted least recently used first once there are more than
+ * maxEntries of them or their estimated size passes maxWeight. Writes made
+ * through this class invalidate the forum or topic they touch before they
+ * return, so whoever made the write sees it on their next read.
+ *
+ * Invalidation works by generation: every forum and topic has a counter
+ * which a write bumps, and an entry is only served if it was loaded under
+ * the current generation. A read that races with a write can therefore
+ * never put stale data back in the cache.
+ *
+ * @author ac16888
+ */
+public class CachedAPI implements APIProvider {
+
+    private static final int FORUMS = 0, FORUM = 1, TOPIC = 2;
+
+    /* rough fixed cost of an entry and of each row in it, in chars */
+    private static final long ENTRY_WEIGHT = 64;
+    private static final long ROW_WEIGHT = 48;
+
+    private final APIProvider api;
+    private final int maxEntries;
+    private final long maxWeight;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight = 0; // guarded by lock
+
+    /* generation per (kind, id), missing means 0 */
+    private final ConcurrentHashMap<Long, Long> generations = new ConcurrentHashMap<>();
+    /* bumped when a post lands in a topic whose forum we have not seen */
+    private final AtomicLong allForumsGeneration = new AtomicLong();
+    /* forum of each topic we have read, so posts can invalidate the forum page */
+    private final ConcurrentHashMap<Integer, Integer> topicForums = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param api - where to load from on a miss and where writes go
+     * @param maxEntries - the most results to keep
+     * @param maxWeight - the most text to keep, roughly in characters
+     */
+    public CachedAPI(APIProvider api, int maxEntries, long maxWeight) {
+        this.api = api;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /* cached reads */
+
+    @Override
+    public Result<List<ForumSummaryView>> getForums() {
+        return cached(new Key(FORUMS, 0, null), () -> api.getForums());
+    }
+
+    @Override
+    public Result<ForumView> getForum(int id) {
+        return cached(new Key(FORUM, id, null), () -> api.getForum(id));
+    }
+
+    @Override
+    public Result<ForumView> getForum(int id, String cursor, int limit) {
+        return cached(new Key(FORUM, id, cursor + "/" + limit),
+            () -> api.getForum(id, cursor, limit));
+    }
+
+    @Override
+    public Result<TopicView> getTopic(int topicId) {
+        return learnForum(cached(new Key(TOPIC, topicId, null),
+            () -> api.getTopic(topicId)));
+    }
+
+    @Override
+    public Result<TopicView> getTopic(int topicId, int afterPostNumber, int limit) {
+        return learnForum(cached(new Key(TOPIC, topicId, afterPostNumber + "/" + limit),
+            () -> api.getTopic(topicId, afterPostNumber, limit)));
+    }
+
+    /* versions are a single row read and must never be stale */
+
+    @Override
+    public Result<EntityVersion> getForumVersion(int id) {
+        return api.getForumVersion(id);
+    }
+
+    @Override
+    public Result<EntityVersion> getTopicVersion(int topicId) {
+        return api.getTopicVersion(topicId);
+    }
+
+    /* writes, which invalidate what they change */
+
+    @Override
+    public Result createForum(String title) {
+        Result r = api.createForum(title);
+        if (r.isSuccess()) {
+            invalidate(FORUMS, 0);
+        }
+        return r;
+    }
+
+    @Override
+    public Result createTopic(int forumId, String username, String title, String text) {
+        Result r = api.createTopic(forumId, username, title, text);
+        if (r.isSuccess()) {
+            invalidate(FORUM, forumId);
+            invalidate(FORUMS, 0); // topic and post counts
+        }
+        return r;
+    }
+
+    @Override
+    public Result createPost(int topicId, String username, String text) {
+        Result r = api.createPost(topicId, username, text);
+        if (r.isSuccess()) {
+            invalidate(TOPIC, topicId);
+            invalidate(FORUMS, 0); // post counts
+            // the post moves the topic to the front of its forum
+            Integer forumId = topicForums.get(topicId);
+            if (forumId != null) {
+                invalidate(FORUM, forumId);
+            } else {
+                allForumsGeneration.incrementAndGet();
+                invalidations.increment();
+            }
+        }
+        return r;
+    }
+
+    /* not cached */
+
+    @Override
+    public Result<Map<String, String>> getUsers() {
+        return api.getUsers();
+    }
+
+    @Override
+    public Result<PersonView> getPersonView(String username) {
+        return api.getPersonView(username);
+    }
+
+    @Override
+    public Result<PersonListView> getPeople(String prefix, String afterUsername, int limit) {
+        return api.getPeople(prefix, afterUsername, limit);
+    }
+
+    @Override
+    public Result addNewPerson(String name, String username, String studentId) {
+        return api.addNewPerson(name, username, studentId);
+    }
+
+    @Override
+    public Result<Integer> countPostsInTopic(int topicId) {
+        return api.countPostsInTopic(topicId);
+    }
+
+    @Override
+    public Result<Map<Integer, Integer>> countPostsInTopics(int forumId) {
+        return api.countPostsInTopics(forumId);
+    }
+
+    /// metrics ///
+
+    public long getHitCount() { return hits.sum(); }
+
+    public long getMissCount() { return misses.sum(); }
+
+    public long getEvictionCount() { return evictions.sum(); }
+
+    public long getInvalidationCount() { return invalidations.sum(); }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return estimated size of everything cached, roughly in characters */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /// internals ///
+
+    private long generation(int kind, int id) {
+        Long g = generations.get(entity(kind, id));
+        long gen = g == null ? 0 : g;
+        return kind == FORUM ? gen + allForumsGeneration.get() : gen;
+    }
+
+    private void invalidate(int kind, int id) {
+        generations.merge(entity(kind, id), 1L, Long::sum);
+        invalidations.increment();
+    }
+
+    private static long entity(int kind, int id) {
+        return ((long) kind << 32) | (id & 0xffffffffL);
+    }
+
+    private Result<TopicView> learnForum(Result<TopicView> r) {
+        if (r.isSuccess() && r.getValue().getForumId() != 0) {
+            if (topicForums.size() > maxEntries * 4) {
+                topicForums.clear(); // unknown topics just invalidate more widely
+            }
+            topicForums.put(r.getValue().getTopicId(), r.getValue().getForumId());
+        }
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Result<T> cached(Key key, Supplier<Result<T>> loader) {
+        // read the generation before loading so a concurrent write makes this load stale
+        long gen = generation(key.kind, key.id);
+        lock.lock();
+        try {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (e.generation == gen) {
+                    hits.increment();
+                    return (Result<T>) e.result;
+                }
+                entries.remove(key);
+                weight -= e.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        Result<T> r = loader.get();
+        if (!r.isSuccess()) {
+            return r; // failures are cheap to repeat and may be transient
+        }
+        long w = ENTRY_WEIGHT + weigh(r.getValue());
+        lock.lock();
+        try {
+            Entry old = entries.put(key, new Entry(r, gen, w));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += w;
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return r;
+    }
+
+    private static long weigh(Object value) {
+        long w = 0;
+        if (value instanceof TopicView) {
+            TopicView t = (TopicView) value;
+            w += t.getTitle().length();
+            for (SimplePostView p : t.getPosts()) {
+                w += ROW_WEIGHT + p.getText().length() + p.getAuthor().length();
+            }
+        } else if (value instanceof ForumView) {
+            ForumView f = (ForumView) value;
+            w += f.getTitle().length();
+            for (SimpleTopicSummaryView t : f.getTopics()) {
+                w += ROW_WEIGHT + t.getTitle().length();
+            }
+        } else if (value instanceof List) {
+            for (Object o : (List<?>) value) {
+                w += ROW_WEIGHT + ((ForumSummaryView) o).getTitle().length();
+            }
+        }
+        return w;
+    }
+
+    private static final class Key {
+        final int kind;
+        final int id;
+        final String variant; // page of a paged read, null for the whole thing
+
+        Key(int kind, int id, String variant) {
+            this.kind = kind;
+            this.id = id;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return kind == k.kind && id == k.id &&
+                (variant == null ? k.variant == null : variant.equals(k.variant));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * kind + id) + (variant == null ? 0 : variant.hashCode());
+        }
+    }
+
+    private static final class Entry {
+        final Result<?> result;
+        final long generation;
+        final long weight;
+
+        Entry(Result<?> result, long generation, long weight) {
+            this.result = result;
+            this.generation = generation;
+            this.weight = weight;
+        }
+    }
+}
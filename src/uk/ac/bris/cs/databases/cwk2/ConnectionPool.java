@@ -0,0 +1,334 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of JDBC connections so that each API call can borrow its
+ * own connection rather than every request sharing the one socket.
+ *
+ * Connections handed out by getConnection() are returned to the pool when
+ * closed (use try-with-resources), any open transaction is rolled back
+ * on return. Idle connections are validated before being lent out again and
+ * closed by a background evictor once they have been idle for too long.
+ * Each connection keeps its own cache of prepared statements which is
+ * dropped along with it.
+ *
+ * @author ac16888
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /* connections used more recently than this are lent out without a ping */
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final int maxSize;
+    private final long waitTimeoutMillis;
+    private final long idleTimeoutMillis;
+
+    /* one permit per connection that may exist, idle or borrowed */
+    private final Semaphore permits;
+    private final ReentrantLock lock = new ReentrantLock();
+    /* most recently returned first, so the tail holds the longest idle */
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final Timer evictor;
+    private volatile boolean closed = false;
+    private volatile int statementCacheSize = 64;
+    private volatile SqlStats sqlStats; // null when statements are not timed
+
+    /* metrics */
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    /**
+     * @param url - JDBC connection string
+     * @param maxSize - the most connections that may be open at once
+     * @param waitTimeoutMillis - how long a caller waits for a free connection
+     * before getConnection() gives up
+     * @param idleTimeoutMillis - idle connections older than this are closed
+     */
+    public ConnectionPool(String url, int maxSize, long waitTimeoutMillis,
+                          long idleTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1.");
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = new Timer("connection-pool-evictor", true);
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.schedule(new TimerTask() {
+            @Override public void run() { evictIdle(); }
+        }, period, period);
+    }
+
+    /**
+     * @param size - prepared statements kept per connection, 0 to turn the
+     * cache off. Applies to connections opened after the call.
+     */
+    public void setStatementCacheSize(int size) {
+        this.statementCacheSize = size;
+    }
+
+    /**
+     * @param stats - where statements run on this pool's connections are
+     * timed, null to stop timing them
+     */
+    public void setSqlStats(SqlStats stats) {
+        this.sqlStats = stats;
+    }
+
+    /**
+     * @return the statement timings, null if off
+     */
+    public SqlStats getSqlStats() {
+        return sqlStats;
+    }
+
+    /**
+     * Borrow a connection, waiting up to the configured timeout for one to
+     * become free. Auto-commit is off; closing the connection returns it.
+     * @return a connection leased to the caller until it is closed
+     * @throws SQLTimeoutException if no connection became free in time
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been closed.");
+        }
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection.");
+        } finally {
+            waiting.decrementAndGet();
+            waitNanos.add(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTimeoutException("Timed out after " + waitTimeoutMillis +
+                "ms waiting for a database connection.");
+        }
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) {
+                pc = open();
+            }
+            borrows.increment();
+            peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            return pc.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Called by a leased connection when it is closed. Rolls back anything
+     * left uncommitted (skipped if the borrower ended on a commit or rollback,
+     * as the driver sends ROLLBACK regardless) and puts the connection back
+     * on the idle list, or discards it if it is broken.
+     */
+    void release(PooledConnection pc) {
+        active.decrementAndGet();
+        try {
+            boolean healthy;
+            try {
+                Connection raw = pc.getRaw();
+                healthy = !raw.isClosed();
+                if (healthy && pc.isDirty() && !raw.getAutoCommit()) {
+                    raw.rollback();
+                }
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            if (!healthy || closed) {
+                pc.closeQuietly();
+                return;
+            }
+            pc.touch();
+            lock.lock();
+            try {
+                idle.addFirst(pc);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pc;
+            lock.lock();
+            try {
+                pc = idle.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+            if (pc == null) {
+                return null;
+            }
+            if (pc.idleMillis() < VALIDATION_BYPASS_MILLIS || isValid(pc)) {
+                return pc;
+            }
+            validationFailures.increment();
+            pc.closeQuietly();
+        }
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.getRaw().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection raw = DriverManager.getConnection(url);
+        try {
+            raw.setAutoCommit(false);
+        } catch (SQLException e) {
+            raw.close();
+            throw e;
+        }
+        created.increment();
+        return new PooledConnection(this, raw, statementCacheSize);
+    }
+
+    void recordStatementLookup(boolean hit) {
+        if (hit) {
+            statementHits.increment();
+        } else {
+            statementMisses.increment();
+        }
+    }
+
+    private void evictIdle() {
+        List<PooledConnection> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pc = it.next();
+                if (pc.idleMillis() < idleTimeoutMillis) {
+                    break; // everything nearer the head was used more recently
+                }
+                it.remove();
+                expired.add(pc);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : expired) {
+            evicted.increment();
+            pc.closeQuietly();
+        }
+    }
+
+    /**
+     * Close all idle connections and stop lending new ones out. Connections
+     * still borrowed are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.cancel();
+        List<PooledConnection> all;
+        lock.lock();
+        try {
+            all = new ArrayList<>(idle);
+            idle.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : all) {
+            pc.closeQuietly();
+        }
+    }
+
+    /// metrics ///
+
+    public int getMaxSize() { return maxSize; }
+
+    /** @return connections currently lent out */
+    public int getActiveCount() { return active.get(); }
+
+    /** @return open connections waiting in the pool */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return callers currently blocked waiting for a connection */
+    public int getWaitingCount() { return waiting.get(); }
+
+    /** @return the most connections that have been lent out at once */
+    public int getPeakActiveCount() { return peakActive.get(); }
+
+    public long getBorrowCount() { return borrows.sum(); }
+
+    /** @return borrows that gave up because the pool stayed saturated */
+    public long getTimeoutCount() { return timeouts.sum(); }
+
+    public long getCreatedCount() { return created.sum(); }
+
+    public long getEvictedCount() { return evicted.sum(); }
+
+    public long getValidationFailureCount() { return validationFailures.sum(); }
+
+    /** @return total time callers have spent waiting to borrow, in nanoseconds */
+    public long getWaitNanos() { return waitNanos.sum(); }
+
+    /** @return prepareStatement calls answered from a connection's cache */
+    public long getStatementCacheHits() { return statementHits.sum(); }
+
+    /** @return prepareStatement calls that had to prepare a new statement */
+    public long getStatementCacheMisses() { return statementMisses.sum(); }
+
+    /** @return fraction of the pool currently lent out, 1.0 when saturated */
+    public double getSaturation() {
+        return (double) active.get() / maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool[active=" + getActiveCount() + ", idle=" + getIdleCount() +
+            ", waiting=" + getWaitingCount() + ", max=" + maxSize +
+            ", peak=" + getPeakActiveCount() + ", timeouts=" + getTimeoutCount() + "]";
+    }
+}
@@ -0,0 +1,296 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import uk.ac.bris.cs.databases.api.Result;
+
+/**
+ * Group commit for new posts. Callers of submit() queue their post and
+ * wait; a single writer thread takes whatever has queued up (waiting up to
+ * maxWait for more once the first arrives), writes it as one JDBC batch
+ * and commits once, then hands each caller its own Result. Under a burst
+ * the database syncs its log once per batch instead of once per post.
+ *
+ * If a batch fails it is rolled back and its posts are written one at a
+ * time, so one bad post only fails its own caller.
+ *
+ * @author ac16888
+ */
+public class GroupCommitWriter implements AutoCloseable {
+
+    /* batch size histogram buckets: 1, 2-3, 4-7, ... 128 and over */
+    private static final int BUCKETS = 8;
+
+    private final ConnectionPool pool;
+    private final Queries query = new Queries();
+    private final int maxBatch;
+    private final long maxWaitNanos;
+
+    private final LinkedBlockingQueue<PendingPost> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /* metrics */
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder posts = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    private final LongAdder[] batchSizes = new LongAdder[BUCKETS];
+
+    /**
+     * @param pool - where the writer borrows its connection for each batch
+     * @param maxBatch - the most posts written in one commit
+     * @param maxWaitMillis - how long the writer waits for more posts after
+     * the first one of a batch arrives, 0 to only batch what has already
+     * queued up behind the previous commit
+     */
+    public GroupCommitWriter(ConnectionPool pool, int maxBatch, long maxWaitMillis) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.pool = pool;
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        for (int i = 0; i < BUCKETS; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+        this.writer = new Thread(this::run, "group-commit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Write a post as part of the next batch, waiting until it is committed.
+     * @param topicId - the topic to post in
+     * @param personId - the author, already known to exist
+     * @param text - the post text, already validated
+     * @return success once committed, failure if the topic does not exist,
+     * fatal if the write failed
+     */
+    Result submit(int topicId, int personId, String text) {
+        if (closed) {
+            return Result.fatal("Post writer has been shut down.");
+        }
+        PendingPost p = new PendingPost(topicId, personId, text);
+        queue.add(p);
+        // close() drains the queue after setting closed, so either it sees p or we do
+        if (closed && queue.remove(p)) {
+            return Result.fatal("Post writer has been shut down.");
+        }
+        try {
+            return p.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.fatal("Interrupted waiting for the post to be written, it may still appear.");
+        } catch (ExecutionException e) {
+            return Result.fatal(String.valueOf(e.getCause()));
+        }
+    }
+
+    private void run() {
+        List<PendingPost> batch = new ArrayList<>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                queue.drainTo(batch, maxBatch - batch.size());
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    PendingPost next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                break; // closing
+            } catch (RuntimeException e) {
+                for (PendingPost p : batch) {
+                    p.result.complete(Result.fatal("Post writer error - " + e));
+                }
+            } finally {
+                // no-op for posts already answered
+                for (PendingPost p : batch) {
+                    p.result.complete(Result.fatal("Post writer has been shut down."));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingPost> batch) {
+        batches.increment();
+        posts.add(batch.size());
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+        batchSizes[Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(batch.size()))].increment();
+
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            writeBatch(batch, work.connection());
+            work.commit();
+        } catch (SQLException e) {
+            // everything was rolled back, try each post on its own so only the bad one fails
+            fallbacks.increment();
+            for (PendingPost p : batch) {
+                p.result.complete(writeOne(p));
+            }
+            return;
+        }
+        for (PendingPost p : batch) {
+            p.result.complete(p.outcome);
+        }
+    }
+
+    /* the batched version of Queries.insertPost, outcomes are only final once committed */
+    private void writeBatch(List<PendingPost> batch, Connection c) throws SQLException {
+        // topics locked in id order, so two writers can not lock them in opposite orders
+        Map<Integer, List<PendingPost>> byTopic = new TreeMap<>();
+        for (PendingPost p : batch) {
+            byTopic.computeIfAbsent(p.topicId, k -> new ArrayList<>()).add(p);
+        }
+        Map<Integer, Integer> forumPosts = new TreeMap<>();
+        try (PreparedStatement lock = c.prepareStatement(
+        "SELECT postCount, forumId FROM Topic WHERE id = ? FOR UPDATE"
+        );
+             PreparedStatement insert = c.prepareStatement(
+        "INSERT INTO Post (timePosted, postText, personId, topicId, postNumber) " +
+                "VALUES (now(), ?, ?, ?, ?)"
+        );
+             PreparedStatement topic = c.prepareStatement(
+        "UPDATE Topic SET postCount = ?, lastPostAt = now() WHERE id = ?"
+        )) {
+            for (Map.Entry<Integer, List<PendingPost>> e : byTopic.entrySet()) {
+                int topicId = e.getKey();
+                lock.setInt(1, topicId);
+                int postCount;
+                int forumId;
+                try (ResultSet r = lock.executeQuery()) {
+                    if (!r.next()) {
+                        for (PendingPost p : e.getValue()) {
+                            p.outcome = Result.failure("Topic does not exist.");
+                        }
+                        continue;
+                    }
+                    postCount = r.getInt("postCount");
+                    forumId = r.getInt("forumId");
+                }
+                for (PendingPost p : e.getValue()) {
+                    insert.setString(1, p.text);
+                    insert.setInt(2, p.personId);
+                    insert.setInt(3, topicId);
+                    insert.setInt(4, ++postCount);
+                    insert.addBatch();
+                    p.outcome = Result.success();
+                }
+                topic.setInt(1, postCount);
+                topic.setInt(2, topicId);
+                topic.addBatch();
+                forumPosts.merge(forumId, e.getValue().size(), Integer::sum);
+            }
+            insert.executeBatch();
+            topic.executeBatch();
+        }
+        try (PreparedStatement forum = c.prepareStatement(
+        "UPDATE Forum SET postCount = postCount + ? WHERE id = ?"
+        )) {
+            for (Map.Entry<Integer, Integer> e : forumPosts.entrySet()) {
+                forum.setInt(1, e.getValue());
+                forum.setInt(2, e.getKey());
+                forum.addBatch();
+            }
+            forum.executeBatch();
+        }
+    }
+
+    private Result writeOne(PendingPost p) {
+        try (UnitOfWork work = new UnitOfWork(pool)) {
+            if (!query.insertPost(p.text, p.personId, p.topicId, work.connection())) {
+                return Result.failure("Topic does not exist.");
+            }
+            work.commit();
+            return Result.success();
+        } catch (SQLException e) {
+            return Result.fatal(String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Stop the writer. Posts already queued are answered with a fatal result.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingPost> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (PendingPost p : left) {
+            p.result.complete(Result.fatal("Post writer has been shut down."));
+        }
+    }
+
+    /// metrics ///
+
+    /** @return batches written (each one commit, or one fallback) */
+    public long getBatchCount() { return batches.sum(); }
+
+    /** @return posts written through the batches */
+    public long getPostCount() { return posts.sum(); }
+
+    /** @return batches that failed and were retried post by post */
+    public long getFallbackCount() { return fallbacks.sum(); }
+
+    public int getLargestBatch() { return largestBatch.get(); }
+
+    /** @return posts per batch on average, the commits saved by grouping */
+    public double getAverageBatchSize() {
+        long b = batches.sum();
+        return b == 0 ? 0 : (double) posts.sum() / b;
+    }
+
+    /**
+     * @return how many batches fell in each size bucket: 1, 2-3, 4-7, 8-15,
+     * 16-31, 32-63, 64-127 and 128 or more posts
+     */
+    public long[] getBatchSizeCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = batchSizes[i].sum();
+        }
+        return counts;
+    }
+
+    /** @return posts waiting for the writer */
+    public int getQueueLength() { return queue.size(); }
+
+    private static final class PendingPost {
+        final int topicId;
+        final int personId;
+        final String text;
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+        Result outcome; // set by the writer thread only
+
+        PendingPost(int topicId, int personId, String text) {
+            this.topicId = topicId;
+            this.personId = personId;
+            this.text = text;
+        }
+    }
+}
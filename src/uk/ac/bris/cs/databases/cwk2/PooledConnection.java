@@ -0,0 +1,158 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A physical connection owned by the ConnectionPool. Each borrow gets a
+ * fresh proxy (a lease) so that closing it, or using it after it has been
+ * closed, only affects that borrower. Prepared statements go through the
+ * connection's StatementCache, which lives as long as the physical
+ * connection does.
+ *
+ * @author ac16888
+ */
+class PooledConnection {
+
+    private final ConnectionPool pool;
+    private final Connection raw;
+    private final StatementCache statements; // null when caching is off
+    private volatile long lastUsed = System.currentTimeMillis();
+    /* statements have run since the last commit or rollback */
+    private volatile boolean dirty = false;
+
+    PooledConnection(ConnectionPool pool, Connection raw, int statementCacheSize) {
+        this.pool = pool;
+        this.raw = raw;
+        this.statements = statementCacheSize > 0
+            ? new StatementCache(raw, pool, statementCacheSize) : null;
+    }
+
+    Connection getRaw() {
+        return raw;
+    }
+
+    /**
+     * @return true if the current transaction may have done something, so
+     * needs rolling back before the connection is reused
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    long idleMillis() {
+        return System.currentTimeMillis() - lastUsed;
+    }
+
+    /**
+     * Mark the connection as just returned to the pool.
+     */
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+        dirty = false;
+        if (statements != null) {
+            statements.releaseAll();
+        }
+    }
+
+    void closeQuietly() {
+        if (statements != null) {
+            statements.clear();
+        }
+        try {
+            raw.close();
+        } catch (SQLException e) {
+            // connection is being thrown away anyway
+        }
+    }
+
+    /**
+     * @return a Connection whose close() hands this connection back to the pool
+     */
+    Connection lease() {
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new Lease());
+    }
+
+    private class Lease implements InvocationHandler {
+        private boolean returned = false;
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + raw + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            SqlStats stats = pool.getSqlStats();
+            switch (m.getName()) {
+                case "commit":
+                case "rollback":
+                    if (args == null) { // not rollback(Savepoint)
+                        long start = System.nanoTime();
+                        Object result = invokeRaw(m, args);
+                        if (stats != null && m.getName().equals("commit")) {
+                            stats.recordCommit(System.nanoTime() - start);
+                        }
+                        dirty = false;
+                        return result;
+                    }
+                    break;
+                case "prepareStatement":
+                case "createStatement":
+                case "prepareCall":
+                    dirty = true;
+                    break;
+                default:
+                    break;
+            }
+            if (!m.getName().equals("prepareStatement")) {
+                return invokeRaw(m, args);
+            }
+            PreparedStatement ps = null;
+            if (statements != null) {
+                if (args.length == 1) {
+                    ps = statements.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+                } else if (args.length == 2 && args[1] instanceof Integer) {
+                    ps = statements.prepare((String) args[0], (Integer) args[1]);
+                }
+            }
+            if (ps == null) {
+                ps = (PreparedStatement) invokeRaw(m, args);
+            }
+            return stats != null ? TimedStatement.wrap(ps, stats, (String) args[0]) : ps;
+        }
+
+        private Object invokeRaw(Method m, Object[] args) throws Throwable {
+            try {
+                return m.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
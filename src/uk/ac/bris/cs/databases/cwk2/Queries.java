@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Connection;
+import java.sql.Statement;
 
 /**
  * Separate class for SQL Queries specifically
@@ -14,6 +15,10 @@ import java.sql.Connection;
  * results specific to that functionality, or
  * others not likely to be used across tables)
  *
+ * The insert methods do not commit, the calling
+ * API method commits once all of its statements
+ * have run (see UnitOfWork).
+ *
  * @author ac16888
  */
 public class Queries {
@@ -65,27 +70,32 @@ public class Queries {
     }
 
     /**
-     * insert new person in to the database, rollback caught in the calling method
+     * insert new person in to the database, commit/rollback left to the calling method
      * @param name - name of the user - not null
      * @param username - username, checked prior to inserting that it does not exist
      * @param stuId - can be null
+     * @return the id of the new person
      *
      * Used by /addNewPerson
      */
-    public void insertPerson(String name, String username, String stuId, Connection c) throws SQLException {
+    public int insertPerson(String name, String username, String stuId, Connection c) throws SQLException {
         try (PreparedStatement p = c.prepareStatement(
-        "INSERT INTO Person (name, username, stuId) VALUES (?, ?, ?)"
+        "INSERT INTO Person (name, username, stuId) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS
         )) {
             p.setString(1, name);
             p.setString(2, username);
             p.setString(3, stuId);
             p.executeUpdate();
-            c.commit();
+            try (ResultSet keys = p.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
         }
     }
 
     /**
-     * insert new forum in to the database, rollback caught in the calling method
+     * insert new forum in to the database, commit/rollback left to the calling method
      * @param title - title of the forum, already ensured that it does not exist, can not be null
      *
      * Used by /createForum
@@ -96,71 +106,96 @@ public class Queries {
         )) {
             p.setString(1, title);
             p.executeUpdate();
-            c.commit();
         }
     }
 
     /**
-     * insert new topic in to the database, rollback caught in the calling method
+     * insert new topic in to the database, commit/rollback left to the calling method
+     * the forum's topicCount is bumped first, which also locks the forum row so that
+     * two new topics in one forum queue up rather than deadlock on the FK check
      * @param title - title of the topic, can not be null
      * @param forumId - FK for the forum, can not be null
      * @param personId - id of the person who wrote the topic, can not be null
+     * @return the id of the new topic (the key generated by this insert, so
+     * concurrent topics can not be mixed up), null if the forum does not exist
      *
      * Used by /createTopic
      */
-    public void insertTopic(String title, int forumId, int personId, Connection c) throws SQLException {
+    public Integer insertTopic(String title, int forumId, int personId, Connection c) throws SQLException {
+        try (PreparedStatement p = c.prepareStatement(
+        "UPDATE Forum SET topicCount = topicCount + 1 WHERE id = ?"
+        )) {
+            p.setInt(1, forumId);
+            if (p.executeUpdate() == 0) {
+                return null;
+            }
+        }
         try (PreparedStatement s = c.prepareStatement(
-        "INSERT INTO Topic (title, forumId, personId) VALUES (?, ?, ?)"
+        "INSERT INTO Topic (title, forumId, personId) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS
         )) {
             s.setString(1, title);
             s.setInt(2, forumId);
             s.setInt(3, personId);
             s.executeUpdate();
-            c.commit();
+            try (ResultSet keys = s.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
         }
     }
 
     /**
-     * insert new post in to the database, rollback caught in the calling method
+     * insert new post in to the database, commit/rollback left to the calling method
+     * the topic row is locked first and the post numbered one after its postCount,
+     * so posts to the same topic take turns (the unique index backs this up).
+     * The topic's postCount and lastPostAt and the forum's postCount are moved on
+     * in the same transaction
      * @param text - body of the post, cannot be null/empty
      * @param topicId - FK for the topic, cannot be null
      * @param personId - id of the person who wrote the post, cannot be null
+     * @return false if the topic does not exist (nothing is written)
      *
      * Used by /createTopic, /createPost
      */
-    public void insertPost(String text, int personId, int topicId, Connection c)throws SQLException{
+    public boolean insertPost(String text, int personId, int topicId, Connection c)throws SQLException{
+        int postNumber;
+        int forumId;
+        try (PreparedStatement p = c.prepareStatement(
+        "SELECT postCount, forumId FROM Topic WHERE id = ? FOR UPDATE"
+        )) {
+            p.setInt(1, topicId);
+            ResultSet r = p.executeQuery();
+            if (!r.next()) {
+                return false;
+            }
+            postNumber = r.getInt("postCount") + 1;
+            forumId = r.getInt("forumId");
+        }
         try (PreparedStatement p = c.prepareStatement(
-        "INSERT INTO Post (timePosted, postText, personId, topicId) VALUES (now(), ?, ?, ?)"
+        "INSERT INTO Post (timePosted, postText, personId, topicId, postNumber) " +
+                "VALUES (now(), ?, ?, ?, ?)"
         )) {
             p.setString(1, text);
             p.setInt(2, personId);
             p.setInt(3, topicId);
+            p.setInt(4, postNumber);
             p.executeUpdate();
-            c.commit();
         }
-    }
-
-    /**
-     * insert new post in to the database, rollback caught in the calling method
-     * the topicId is retrieved by getting the most recently insterted topics
-     * by ordering to create the first post
-     * @return - int value, that is the topic id
-     *
-     * used by /createTopic
-     */
-    public int getTopicId(Connection c) throws SQLException{
-        int topicId;
-        // gets the topicId by getting the most recent topicId (Used to create new post just after topic
-        // is created therefore most recent topicId is the correct one)
         try (PreparedStatement p = c.prepareStatement(
-        "SELECT id AS topicId FROM Topic " +
-                "ORDER BY id DESC LIMIT 1"
+        "UPDATE Topic SET postCount = ?, lastPostAt = now() WHERE id = ?"
         )) {
-            ResultSet r = p.executeQuery();
-            r.next();
-            topicId = r.getInt("topicId");
+            p.setInt(1, postNumber);
+            p.setInt(2, topicId);
+            p.executeUpdate();
+        }
+        try (PreparedStatement p = c.prepareStatement(
+        "UPDATE Forum SET postCount = postCount + 1 WHERE id = ?"
+        )) {
+            p.setInt(1, forumId);
+            p.executeUpdate();
         }
-        return topicId;
+        return true;
     }
 
     /**
@@ -0,0 +1,196 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in the database per SQL statement, collected by the pool's
+ * connections: how often each statement ran, how long executing it and
+ * then reading its results took, how many rows came back, and how long
+ * commits took. Statements are grouped by their text with whitespace and
+ * any literals normalised away, so the same query written over several
+ * lines is one entry.
+ *
+ * Counters are LongAdders, striped per thread, so concurrent requests do
+ * not contend on them. Executions slower than the threshold are passed to
+ * the slow query listener, a sample of them if a sample rate is set.
+ *
+ * @author ac16888
+ */
+public class SqlStats {
+
+    /* more distinct statements than this are counted together */
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER = "(other statements)";
+
+    /** Told about executions over the slow query threshold. */
+    public interface SlowQueryListener {
+        /**
+         * @param sql - the normalised statement
+         * @param nanos - how long executing it took
+         */
+        void slowQuery(String sql, long nanos);
+    }
+
+    private final ConcurrentHashMap<String, Statement> bySql = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Statement> byNormalised = new ConcurrentHashMap<>();
+    private final long slowNanos;
+    private final double slowSampleRate;
+    private volatile SlowQueryListener listener;
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong commitMaxNanos = new AtomicLong();
+
+    /**
+     * @param slowMillis - executions taking longer than this are reported
+     * @param slowSampleRate - fraction of slow executions reported, 1 for all
+     */
+    public SqlStats(long slowMillis, double slowSampleRate) {
+        this.slowNanos = slowMillis * 1000000;
+        this.slowSampleRate = slowSampleRate;
+    }
+
+    public void setSlowQueryListener(SlowQueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param sql - statement text as prepared
+     * @return the entry it is counted under
+     */
+    Statement forSql(String sql) {
+        Statement s = bySql.get(sql);
+        if (s != null) {
+            return s;
+        }
+        String n = normalise(sql);
+        if (byNormalised.size() >= MAX_STATEMENTS && !byNormalised.containsKey(n)) {
+            n = OTHER;
+        }
+        s = byNormalised.computeIfAbsent(n, Statement::new);
+        if (bySql.size() < MAX_STATEMENTS * 4) {
+            bySql.putIfAbsent(sql, s);
+        }
+        return s;
+    }
+
+    /* collapse whitespace, literals become ? */
+    static String normalise(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (c == '\'' || c == '"') {
+                // skip the string, '' inside it is an escaped quote
+                int j = i + 1;
+                while (j < sql.length()) {
+                    if (sql.charAt(j) == c) {
+                        if (j + 1 < sql.length() && sql.charAt(j + 1) == c) {
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    j++;
+                }
+                sb.append('?');
+                i = j;
+            } else if (Character.isDigit(c) && (sb.length() == 0
+                    || !Character.isLetterOrDigit(sb.charAt(sb.length() - 1))
+                        && sb.charAt(sb.length() - 1) != '_')) {
+                while (i + 1 < sql.length() && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                sb.append('?');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    void recordExecution(Statement s, long nanos, boolean failed) {
+        s.executions.increment();
+        s.execNanos.add(nanos);
+        s.maxNanos.accumulateAndGet(nanos, Math::max);
+        if (failed) {
+            s.errors.increment();
+        }
+        SlowQueryListener l = listener;
+        if (nanos > slowNanos && l != null
+                && (slowSampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < slowSampleRate)) {
+            l.slowQuery(s.sql, nanos);
+        }
+    }
+
+    void recordCommit(long nanos) {
+        commits.increment();
+        commitNanos.add(nanos);
+        commitMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return every statement seen, most total time (executing and
+     * fetching) first
+     */
+    public List<Statement> getStatements() {
+        List<Statement> all = new ArrayList<>(byNormalised.values());
+        all.sort(Comparator.comparingLong(Statement::getTotalNanos).reversed());
+        return all;
+    }
+
+    public long getCommitCount() { return commits.sum(); }
+
+    public long getCommitNanos() { return commitNanos.sum(); }
+
+    public long getCommitMaxNanos() { return commitMaxNanos.get(); }
+
+    /** Counters for one normalised statement. */
+    public static class Statement {
+        private final String sql;
+        final LongAdder executions = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder execNanos = new LongAdder();
+        final LongAdder fetchNanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Statement(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() { return sql; }
+
+        public long getExecutions() { return executions.sum(); }
+
+        public long getErrors() { return errors.sum(); }
+
+        /** @return time in execute calls */
+        public long getExecNanos() { return execNanos.sum(); }
+
+        /** @return time in ResultSet.next(), reading the results */
+        public long getFetchNanos() { return fetchNanos.sum(); }
+
+        public long getTotalNanos() { return execNanos.sum() + fetchNanos.sum(); }
+
+        /** @return the slowest single execution */
+        public long getMaxNanos() { return maxNanos.get(); }
+
+        /** @return rows read from result sets */
+        public long getRows() { return rows.sum(); }
+    }
+}
@@ -0,0 +1,220 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of prepared statements for one pooled connection, keyed by SQL
+ * text. Each caller gets its own proxy (a Checkout) whose close() closes
+ * the result sets it returned, clears the parameters and keeps the real
+ * statement for the next caller with the same SQL, so the constant
+ * queries in API and Queries are parsed once per connection instead of
+ * once per request. A proxy that has been closed, or whose connection has
+ * gone back to the pool, stays closed even once the statement is handed
+ * out again.
+ *
+ * Only the thread currently holding the connection touches its cache, so
+ * there is no locking here.
+ *
+ * @author ac16888
+ */
+class StatementCache {
+
+    private final Connection raw;
+    private final ConnectionPool pool;
+    private final LinkedHashMap<String, CachedStatement> statements;
+    // pushed out of the map while checked out, closed when their user is done
+    private final List<CachedStatement> evictedInUse = new ArrayList<>();
+
+    StatementCache(Connection raw, ConnectionPool pool, final int capacity) {
+        this.raw = raw;
+        this.pool = pool;
+        // access order, so the eldest entry is the least recently used
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                CachedStatement s = eldest.getValue();
+                if (s.current != null) {
+                    s.evicted = true;
+                    evictedInUse.add(s);
+                } else {
+                    s.closeQuietly();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param sql - the statement text
+     * @param autoGeneratedKeys - Statement.RETURN_GENERATED_KEYS or NO_GENERATED_KEYS
+     * @return a statement for sql, reused if one is cached and not in use
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K" + sql : "N" + sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null) {
+            if (cached.current != null) {
+                // same SQL opened twice at once, give the second caller its own
+                pool.recordStatementLookup(false);
+                return raw.prepareStatement(sql, autoGeneratedKeys);
+            }
+            pool.recordStatementLookup(true);
+            return cached.checkOut();
+        }
+        pool.recordStatementLookup(false);
+        cached = new CachedStatement(raw.prepareStatement(sql, autoGeneratedKeys));
+        statements.put(key, cached);
+        return cached.checkOut();
+    }
+
+    /**
+     * Called when the connection goes back to the pool; anything a borrower
+     * forgot to close is closed for it and free for the next one.
+     */
+    void releaseAll() {
+        for (CachedStatement s : statements.values()) {
+            if (s.current != null) {
+                s.current.close();
+            }
+        }
+        // closing a checkout of an evicted statement removes it from the list
+        for (CachedStatement s : new ArrayList<>(evictedInUse)) {
+            s.current.close();
+        }
+    }
+
+    /**
+     * Drop every statement, used when the connection itself is being closed.
+     */
+    void clear() {
+        releaseAll();
+        List<CachedStatement> all = new ArrayList<>(statements.values());
+        statements.clear();
+        for (CachedStatement s : all) {
+            s.closeQuietly();
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private class CachedStatement {
+        private final PreparedStatement statement;
+        private Checkout current; // null when not checked out
+        private boolean evicted = false;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement checkOut() {
+            current = new Checkout(this);
+            return current.proxy;
+        }
+
+        /* the current checkout is done with the statement */
+        void checkIn() {
+            current = null;
+            if (evicted) {
+                evictedInUse.remove(this);
+                closeQuietly();
+            } else {
+                try {
+                    statement.clearParameters();
+                } catch (SQLException e) {
+                    // set again by the next user anyway
+                }
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // statement is being discarded anyway
+            }
+        }
+    }
+
+    /* one caller's use of a cached statement, like PooledConnection's Lease */
+    private static class Checkout implements InvocationHandler {
+        private final CachedStatement cached;
+        private final PreparedStatement proxy;
+        private boolean closed = false;
+        // result sets handed out by this checkout, closed with it
+        private final List<ResultSet> results = new ArrayList<>(2);
+
+        Checkout(CachedStatement cached) {
+            this.cached = cached;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                this);
+        }
+
+        /* a cached statement is never closed, so its last result would
+           otherwise be held (and a streaming one left pending) until reuse */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ResultSet r : results) {
+                try {
+                    r.close();
+                } catch (SQLException e) {
+                    // the statement is still usable
+                }
+            }
+            results.clear();
+            cached.checkIn();
+        }
+
+        @Override
+        public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement has already been closed.");
+            }
+            try {
+                Object result = m.invoke(cached.statement, args);
+                if (result instanceof ResultSet) {
+                    results.add((ResultSet) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Wraps a prepared statement so its executions, and reading the rows of
+ * the result sets it returns, are counted in SqlStats.
+ *
+ * @author ac16888
+ */
+class TimedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+    private final SqlStats stats;
+    private final SqlStats.Statement entry;
+
+    private TimedStatement(PreparedStatement statement, SqlStats stats, SqlStats.Statement entry) {
+        this.statement = statement;
+        this.stats = stats;
+        this.entry = entry;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, SqlStats stats, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class },
+            new TimedStatement(statement, stats, stats.forSql(sql)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+        switch (m.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                break;
+        }
+        if (!m.getName().startsWith("execute")) {
+            return invokeOn(statement, m, args);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = invokeOn(statement, m, args);
+            failed = false;
+            if (result instanceof ResultSet) {
+                return rows((ResultSet) result);
+            }
+            return result;
+        } finally {
+            stats.recordExecution(entry, System.nanoTime() - start, failed);
+        }
+    }
+
+    /* counts rows and the time next() takes */
+    private ResultSet rows(ResultSet rs) {
+        return (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(),
+            new Class<?>[] { ResultSet.class },
+            (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "next":
+                        long start = System.nanoTime();
+                        boolean more = rs.next();
+                        entry.fetchNanos.add(System.nanoTime() - start);
+                        if (more) {
+                            entry.rows.increment();
+                        }
+                        return more;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return invokeOn(rs, m, args);
+                }
+            });
+    }
+
+    private static Object invokeOn(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
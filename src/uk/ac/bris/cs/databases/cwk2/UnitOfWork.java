@@ -0,0 +1,61 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * One database transaction covering all the statements of an API write.
+ * Borrows a connection for its lifetime; nothing is committed until
+ * commit() is called and closing it without committing rolls everything
+ * back, so a write either happens in full or not at all.
+ *
+ * <pre>
+ * try (UnitOfWork work = new UnitOfWork(pool)) {
+ *     query.insertTopic(..., work.connection());
+ *     query.insertPost(..., work.connection());
+ *     work.commit();
+ * }
+ * </pre>
+ *
+ * @author ac16888
+ */
+class UnitOfWork implements AutoCloseable {
+
+    private final Connection c;
+    private boolean committed = false;
+
+    UnitOfWork(ConnectionPool pool) throws SQLException {
+        this.c = pool.getConnection();
+    }
+
+    /**
+     * @return the connection every statement of this unit must run on
+     */
+    Connection connection() {
+        return c;
+    }
+
+    /**
+     * Make everything done so far permanent, in one commit.
+     */
+    void commit() throws SQLException {
+        c.commit();
+        committed = true;
+    }
+
+    /**
+     * Roll back unless committed and hand the connection back. A failed
+     * rollback is thrown, or added as suppressed to the exception that
+     * ended the unit early.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!committed) {
+                c.rollback();
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.bris.cs.databases.cwk2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process cache of username -> Person.id so that writes do not need a
+ * round trip to look the author up. Usernames never change or go away once
+ * created, so a found id is good for as long as it stays in the cache.
+ *
+ * Usernames that were looked up and not found are remembered too, but only
+ * for a short time, as the person may be created (possibly by another
+ * server) at any moment.
+ *
+ * Both maps are bounded and drop their least recently used entries.
+ *
+ * @author ac16888
+ */
+public class UserIdCache {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Integer> ids;
+    private final LinkedHashMap<String, Long> missing; // username -> expiry time
+    private final long negativeTtlMillis;
+
+    /**
+     * @param maxEntries - the most usernames to remember ids for
+     * @param negativeTtlMillis - how long a failed lookup is remembered, 0
+     * to always ask the database about unknown usernames
+     */
+    public UserIdCache(final int maxEntries, long negativeTtlMillis) {
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.ids = new LinkedHashMap<String, Integer>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        final int maxMissing = Math.max(16, maxEntries / 10);
+        this.missing = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxMissing;
+            }
+        };
+    }
+
+    /**
+     * @param username - the username to look up
+     * @return the id if known, null if not in the cache
+     */
+    public Integer get(String username) {
+        lock.lock();
+        try {
+            return ids.get(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param username - the username to look up
+     * @return true if the username was recently looked up and did not exist
+     */
+    public boolean isKnownMissing(String username) {
+        lock.lock();
+        try {
+            Long expires = missing.get(username);
+            if (expires == null) {
+                return false;
+            }
+            if (expires < System.currentTimeMillis()) {
+                missing.remove(username);
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remember the id of an existing user.
+     */
+    public void put(String username, int id) {
+        lock.lock();
+        try {
+            missing.remove(username);
+            ids.put(username, id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remember that a username does not exist, for the negative TTL.
+     */
+    public void putMissing(String username) {
+        if (negativeTtlMillis <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            missing.put(username, System.currentTimeMillis() + negativeTtlMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -5,10 +5,13 @@ import fi.iki.elonen.router.RouterNanoHTTPD;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import uk.ac.bris.cs.databases.api.Result;
 
@@ -54,7 +57,7 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
 
     
     
-    class Status implements NanoHTTPD.Response.IStatus {
+    static class Status implements NanoHTTPD.Response.IStatus {
 
         private final int code;
 
@@ -62,12 +65,17 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
             this.code = code;
         }
         
+        // NanoHTTPD writes this straight after "HTTP/1.1 " in the status line
         @Override public String getDescription() {
             switch (code) {
-                case 200: return "OK";
-                case 404: return "Not found";
-                case 500: return "Internal error";
-                default:  return "OTHER"; // naughty
+                case 200: return "200 OK";
+                case 304: return "304 Not Modified";
+                case 400: return "400 Bad Request";
+                case 403: return "403 Forbidden";
+                case 404: return "404 Not Found";
+                case 500: return "500 Internal Server Error";
+                case 503: return "503 Service Unavailable";
+                default:  return code + " OTHER"; // naughty
             }
         }
 
@@ -77,6 +85,81 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
         
     }
     
+    /* pages are encoded here rather than by NanoHTTPD, so say how */
+    private static final String CHARSET = "; charset=UTF-8";
+
+    /** Name of the cookie holding the signed session token. */
+    static final String SESSION_COOKIE = "session";
+
+    /**
+     * The logged in user, checked against the token's signature in memory
+     * (no database access).
+     * @param session - the request
+     * @return the username, or null if not logged in or the token is bad
+     */
+    String currentUser(NanoHTTPD.IHTTPSession session) {
+        return ApplicationContext.getInstance().getSessionTokens()
+            .verify(session.getCookies().read(SESSION_COOKIE));
+    }
+
+    /**
+     * If-None-Match check, with the weak comparison RFC 7232 asks for.
+     * @param ifNoneMatch - the request header, may be null
+     * @param etag - the current tag, quotes included
+     * @return true if the client already has this version
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String bare = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(bare)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accept-Encoding check for gzip. A coding listed with q=0 is refused,
+     * and "*" stands for gzip when gzip is not listed itself (RFC 7231).
+     * @param acceptEncoding - the request header, may be null
+     * @return true if the client takes gzip
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean any = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=") || p.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0; // unreadable, so do not take it as a yes
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                return q > 0;
+            }
+            if (coding.equals("*")) {
+                any = q > 0;
+            }
+        }
+        return any;
+    }
+
     /** Implement this to work with cookies. */
     void handleCookies(NanoHTTPD.IHTTPSession session) {}
     
@@ -85,10 +168,46 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
                                       NanoHTTPD.IHTTPSession session) {
         View v = render(uriResource, urlParams, session);
         handleCookies(session);
-        NanoHTTPD.Response r = NanoHTTPD.newFixedLengthResponse(
+        ResponseCompressor gzip = ApplicationContext.getInstance().getResponseCompressor();
+        NanoHTTPD.Response r;
+        if (v.getCode() == 304) {
+            r = NanoHTTPD.newFixedLengthResponse(new Status(304), getMimeType(), "");
+        } else if (v.isStreamed()) {
+            // size is unknown up front, so streamed pages are compressed whenever accepted
+            r = ApplicationContext.getInstance().getStreamingRenderer()
+                .respond(new Status(v.getCode()), getMimeType() + CHARSET,
+                         v.getName(), v.getPage(),
+                         gzip != null && gzip.accepts(session) ? gzip : null);
+        } else {
+            byte[] body = v.getBody() != null ? v.getBody()
+                        : v.getContents().getBytes(StandardCharsets.UTF_8);
+            boolean compress;
+            if (v.getGzipped() != null) {
+                compress = gzip != null && gzip.accepts(session);
+                if (compress) {
+                    body = v.getGzipped();
+                }
+            } else {
+                compress = gzip != null && gzip.shouldCompress(session, body.length);
+                if (compress) {
+                    body = gzip.gzip(body);
+                }
+            }
+            r = NanoHTTPD.newFixedLengthResponse(
                                new Status(v.getCode()),
-                               getMimeType(),
-                               v.getContents());
+                               getMimeType() + CHARSET,
+                               new ByteArrayInputStream(body),
+                               body.length);
+            if (compress) {
+                r.addHeader("Content-Encoding", "gzip");
+            }
+        }
+        if (gzip != null) {
+            r.addHeader("Vary", "Accept-Encoding");
+        }
+        for (Map.Entry<String, String> h : v.getHeaders().entrySet()) {
+            r.addHeader(h.getKey(), h.getValue());
+        }
         return r;
     }
     
@@ -127,7 +246,26 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
     }
     
     View renderView(String template, Object data, Object state) {
+        return renderView(template, data, state, true);
+    }
+
+    /**
+     * @param stream - false to render in full even in streaming mode, for
+     * pages that are going to be kept
+     */
+    View renderView(String template, Object data, Object state, boolean stream) {
+        return renderView(template, data, state, stream, null);
+    }
+
+    /**
+     * @param extras - more template variables, may be null
+     */
+    View renderView(String template, Object data, Object state, boolean stream,
+                    Map<String, Object> extras) {
         Map <String, Object> viewdata = new HashMap<>();
+        if (extras != null) {
+            viewdata.putAll(extras);
+        }
         viewdata.put("data", data);
         viewdata.put("session", state);
         
@@ -139,6 +277,11 @@ public abstract class AbstractHandler extends RouterNanoHTTPD.DefaultHandler {
         } catch (Exception e) {
             return new View(500, "Template error - " + e.getMessage());
         }
+
+        // streaming mode renders while sending, see StreamingRenderer
+        if (stream && ApplicationContext.getInstance().getStreamingRenderer() != null) {
+            return new View(200, t, viewdata);
+        }
         
         StringWriter w = new StringWriter();
         try {
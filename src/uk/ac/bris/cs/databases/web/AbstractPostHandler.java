@@ -61,14 +61,22 @@ public abstract class AbstractPostHandler extends AbstractHandler {
             return new View(500, "Exception handling POST - " + e.getMessage());
         }
    
-        System.out.println("[AbstractPostHandler] render " + uriResource.getUri());
-        for (Map.Entry<String,String> e : m.entrySet()) {
-            System.out.println("param " + e.getKey() + " => " + e.getValue());
+        Log.request(Log.Level.INFO, session.getUri(), "post", "uri", session.getUri());
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            // values are cut short by the log, post bodies can be long
+            Object[] kv = new Object[2 + 2 * m.size()];
+            kv[0] = "uri";
+            kv[1] = session.getUri();
+            int i = 2;
+            for (Map.Entry<String,String> e : m.entrySet()) {
+                kv[i++] = e.getKey();
+                kv[i++] = e.getValue();
+            }
+            Log.request(Log.Level.DEBUG, session.getUri(), "params", kv);
         }
         RenderPair rp = handlePost(m, session);
         
-        NanoHTTPD.CookieHandler h = session.getCookies();
-        String user = h.read("user");
+        String user = currentUser(session);
         
         if (rp.data.isSuccess()) {
             return renderView(rp.template, rp.data.getValue(), user);
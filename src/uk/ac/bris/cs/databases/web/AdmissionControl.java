@@ -0,0 +1,60 @@
+package uk.ac.bris.cs.databases.web;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the kinds of request from starving each other: stylesheets, page
+ * reads and writes (every POST) each go through their own Bulkhead, so a
+ * flood of slow posts or huge topic pages can not take the places the
+ * forum list needs. A request its bulkhead turns away gets a 503 with
+ * Retry-After straight away.
+ *
+ * @author csxdb
+ */
+public class AdmissionControl {
+
+    /* seconds a client is asked to wait after a 503 */
+    private static final String RETRY_AFTER = "1";
+
+    private final Bulkhead staticFiles;
+    private final Bulkhead reads;
+    private final Bulkhead writes;
+
+    public AdmissionControl(Bulkhead staticFiles, Bulkhead reads, Bulkhead writes) {
+        this.staticFiles = staticFiles;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * @return the bulkhead for a request
+     */
+    Bulkhead select(NanoHTTPD.IHTTPSession session) {
+        if (session.getMethod() == NanoHTTPD.Method.POST) {
+            return writes;
+        }
+        StaticAssets assets = ApplicationContext.getInstance().getStaticAssets();
+        if (assets != null && assets.get(session.getUri()) != null) {
+            return staticFiles;
+        }
+        return reads;
+    }
+
+    /**
+     * @return the response for a request that was turned away
+     */
+    NanoHTTPD.Response shed(Bulkhead b) {
+        NanoHTTPD.Response r = NanoHTTPD.newFixedLengthResponse(
+            new AbstractHandler.Status(503), "text/plain",
+            "Server busy (" + b.getName() + "), please try again shortly.");
+        r.addHeader("Retry-After", RETRY_AFTER);
+        r.addHeader("Cache-Control", "no-store");
+        return r;
+    }
+
+    public List<Bulkhead> getBulkheads() {
+        return Arrays.asList(staticFiles, reads, writes);
+    }
+}
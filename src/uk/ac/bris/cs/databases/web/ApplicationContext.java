@@ -2,6 +2,8 @@ package uk.ac.bris.cs.databases.web;
 
 import freemarker.template.Configuration;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.cwk2.ConnectionPool;
+import uk.ac.bris.cs.databases.cwk2.GroupCommitWriter;
 
 /**
  *
@@ -14,7 +16,27 @@ public class ApplicationContext {
     
     private APIProvider api;
 
+    private ConnectionPool connectionPool;
+
     private Configuration templateConfiguration;
+
+    private StreamingRenderer streamingRenderer;
+
+    private SessionTokens sessionTokens;
+
+    private StaticAssets staticAssets;
+
+    private ResponseCompressor responseCompressor;
+
+    private PageCache pageCache;
+
+    private RequestRunner requestRunner;
+
+    private AdmissionControl admissionControl;
+
+    private Metrics metrics;
+
+    private GroupCommitWriter groupCommitWriter;
     
    
     public static ApplicationContext getInstance() {
@@ -35,6 +57,20 @@ public class ApplicationContext {
         this.api = api;
     }
 
+    /**
+     * @return the connection pool behind the api, for reporting its metrics
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @param connectionPool the connectionPool to set
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
     /**
      * @return the templateConfiguration
      */
@@ -48,4 +84,131 @@ public class ApplicationContext {
     public void setTemplateConfiguration(Configuration templateConfiguration) {
         this.templateConfiguration = templateConfiguration;
     }
+
+    /**
+     * @return the streamingRenderer, null unless streaming render mode is on
+     */
+    public StreamingRenderer getStreamingRenderer() {
+        return streamingRenderer;
+    }
+
+    /**
+     * @param streamingRenderer the streamingRenderer to set, null to render
+     * pages in full before sending them
+     */
+    public void setStreamingRenderer(StreamingRenderer streamingRenderer) {
+        this.streamingRenderer = streamingRenderer;
+    }
+
+    /**
+     * @return the sessionTokens used to sign and check login cookies
+     */
+    public SessionTokens getSessionTokens() {
+        return sessionTokens;
+    }
+
+    /**
+     * @param sessionTokens the sessionTokens to set
+     */
+    public void setSessionTokens(SessionTokens sessionTokens) {
+        this.sessionTokens = sessionTokens;
+    }
+
+    /**
+     * @return the staticAssets served by StyleHandler
+     */
+    public StaticAssets getStaticAssets() {
+        return staticAssets;
+    }
+
+    /**
+     * @param staticAssets the staticAssets to set
+     */
+    public void setStaticAssets(StaticAssets staticAssets) {
+        this.staticAssets = staticAssets;
+    }
+
+    /**
+     * @return the responseCompressor for pages, null if compression is off
+     */
+    public ResponseCompressor getResponseCompressor() {
+        return responseCompressor;
+    }
+
+    /**
+     * @param responseCompressor the responseCompressor to set
+     */
+    public void setResponseCompressor(ResponseCompressor responseCompressor) {
+        this.responseCompressor = responseCompressor;
+    }
+
+    /**
+     * @return the pageCache of rendered pages, null if it is off
+     */
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * @param pageCache the pageCache to set
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * @return the requestRunner the server's connections run on
+     */
+    public RequestRunner getRequestRunner() {
+        return requestRunner;
+    }
+
+    /**
+     * @param requestRunner the requestRunner to set
+     */
+    public void setRequestRunner(RequestRunner requestRunner) {
+        this.requestRunner = requestRunner;
+    }
+
+    /**
+     * @return the admissionControl, null if it is off
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * @param admissionControl the admissionControl to set
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * @return the metrics, null if they are off
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics the metrics to set
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the groupCommitWriter, null unless group commit is on
+     */
+    public GroupCommitWriter getGroupCommitWriter() {
+        return groupCommitWriter;
+    }
+
+    /**
+     * @param groupCommitWriter the groupCommitWriter to set
+     */
+    public void setGroupCommitWriter(GroupCommitWriter groupCommitWriter) {
+        this.groupCommitWriter = groupCommitWriter;
+    }
 }
@@ -0,0 +1,178 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit for one class of requests, with a short bounded
+ * queue in front of it. A request that finds the queue full, or waits in
+ * it too long, is turned away so the server can answer 503 at once rather
+ * than pile up work it will be too late to finish.
+ *
+ * The limit adapts AIMD style to the latency the requests see: while they
+ * finish within the target and the limit is being used, it grows by one
+ * per limit's worth of requests; when they run slow it is cut by a tenth,
+ * at most once per target interval so one slow burst is not punished over
+ * and over. So the limit settles near throughput times target latency,
+ * the concurrency the class can take without queueing (Little's law).
+ *
+ * @author csxdb
+ */
+public class Bulkhead {
+
+    private static final double DECREASE = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long queueTimeoutNanos;
+    private final long targetNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+    /* guarded by lock */
+    private double limit;
+    private int inFlight = 0;
+    private int queued = 0;
+    private long lastDecrease;
+
+    /* metrics */
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    /**
+     * @param name - the request class, for logs and metrics
+     * @param maxLimit - the most requests let through at once
+     * @param maxQueued - requests that may wait for a place
+     * @param queueTimeoutMillis - how long one waits before being turned away
+     * @param targetMillis - the latency above which the limit is cut
+     */
+    public Bulkhead(String name, int maxLimit, int maxQueued,
+                    long queueTimeoutMillis, long targetMillis) {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, this.maxLimit / 8);
+        this.maxQueued = maxQueued;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.limit = this.maxLimit;
+        // nanoTime() has an arbitrary origin, so 0 would not mean "long ago"
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Take a place, queueing for one if need be.
+     * @return true if admitted (call release() when done), false if the
+     * request should be turned away
+     */
+    boolean acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                admitted.increment();
+                return true;
+            }
+            if (queued >= maxQueued) {
+                shed.increment();
+                return false;
+            }
+            queued++;
+            try {
+                long left = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (left <= 0) {
+                        shed.increment();
+                        return false;
+                    }
+                    left = freed.awaitNanos(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shed.increment();
+                return false;
+            } finally {
+                queued--;
+            }
+            inFlight++;
+            admitted.increment();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give the place back and adjust the limit.
+     * @param startNanos - System.nanoTime() when the request was admitted
+     */
+    void release(long startNanos) {
+        long now = System.nanoTime();
+        long latency = now - startNanos;
+        lock.lock();
+        try {
+            if (latency > targetNanos) {
+                slow.increment();
+                if (now - lastDecrease > targetNanos) {
+                    limit = Math.max(minLimit, limit * DECREASE);
+                    lastDecrease = now;
+                }
+            } else if (inFlight >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            inFlight--;
+            // the limit can have grown past the place given back, so wake one per free place
+            for (int n = Math.min((int) limit - inFlight, queued); n > 0; n--) {
+                freed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /// metrics ///
+
+    /** @return the current concurrency limit */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() { return admitted.sum(); }
+
+    /** @return requests turned away, queue full or waited too long */
+    public long getShedCount() { return shed.sum(); }
+
+    /** @return requests that took longer than the target */
+    public long getSlowCount() { return slow.sum(); }
+}
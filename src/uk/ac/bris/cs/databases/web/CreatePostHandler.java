@@ -15,8 +15,7 @@ public class CreatePostHandler extends AbstractPostHandler {
     public RenderPair handlePost(Map<String,String> params,
         NanoHTTPD.IHTTPSession session) {
         
-        NanoHTTPD.CookieHandler h = session.getCookies();
-        String name = h.read("user");
+        String name = currentUser(session);
         
         if (name == null || name.equals("")) {
             return new RenderPair(null, Result.failure("Missing 'name'"));
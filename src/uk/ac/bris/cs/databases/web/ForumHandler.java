@@ -1,23 +1,49 @@
 package uk.ac.bris.cs.databases.web;
 
+import fi.iki.elonen.NanoHTTPD;
+import java.util.Map;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.EntityVersion;
 import uk.ac.bris.cs.databases.api.ForumView;
 import uk.ac.bris.cs.databases.api.Result;
 
 /**
- * Handler for the advanced view of a single forum.
- * path: /forum2/$id
+ * Handler for the advanced view of a single forum, one page of topics at a
+ * time with the most recently active first.
+ * path: /forum/$id?cursor=c&limit=m
  * 
  * @author csxdb
  */
-public class ForumHandler extends SimpleHandler {
+public class ForumHandler extends RPHandler {
+
+    static final int PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+
+    @Override
+    EntityVersion version(String p) {
+        int id;
+        try {
+            id = Integer.parseInt(p);
+        } catch (NumberFormatException e) {
+            return null; // doRender reports it
+        }
+        Result<EntityVersion> r = ApplicationContext.getInstance().getApi().getForumVersion(id);
+        return r.isSuccess() ? r.getValue() : null;
+    }
 
     @Override
-    RenderPair simpleRender(String p) throws RenderException {
-        int id = Integer.parseInt(p);
+    RenderPair doRender(String p, NanoHTTPD.IHTTPSession session)
+        throws RenderException {
+        int id = intId(p);
+        Map<String,String> query = parseQuery(session.getQueryParameterString());
+        String cursor = query.get("cursor");
+        if (cursor != null && cursor.equals("")) {
+            cursor = null;
+        }
+        int limit = Math.min(intParameter(query, "limit", PAGE_SIZE), MAX_PAGE_SIZE);
         APIProvider api = ApplicationContext.getInstance().getApi();
-        Result<ForumView> r = api.getForum(id);
-        return new RenderPair("ForumView.ftl", r);
+        Result<ForumView> r = api.getForum(id, cursor, limit);
+        return new RenderPair("ForumView.ftl", r, limitExtras(query, limit));
     }
     
 }
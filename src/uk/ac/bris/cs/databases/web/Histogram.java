@@ -0,0 +1,100 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with HDR style buckets: exact below 64 microseconds,
+ * then 32 buckets per power of two, so any value is within about 3% of
+ * its bucket. Recording is one atomic increment on a fixed array plus two
+ * adders, with no locks and nothing allocated, cheap enough to leave on
+ * for every request.
+ *
+ * Counts are kept since startup.
+ *
+ * @author csxdb
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    /* values up to 2^40 microseconds (12 days), anything longer goes in the last bucket */
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS) * SUB + 2 * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    /**
+     * @param nanos - the latency to record
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        totalMicros.add(micros);
+    }
+
+    private static int index(long v) {
+        if (v < 2 * SUB) {
+            return (int) v;
+        }
+        int m = 63 - Long.numberOfLeadingZeros(v);
+        if (m > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        return (m - SUB_BITS) * SUB + (int) (v >>> (m - SUB_BITS));
+    }
+
+    /* the middle of a bucket, in microseconds */
+    private static double midpoint(int i) {
+        if (i < 2 * SUB) {
+            return i;
+        }
+        int m = i / SUB + SUB_BITS - 1;
+        int shift = m - SUB_BITS;
+        long low = (long) (i % SUB + SUB) << shift;
+        return low + ((1L << shift) - 1) / 2.0;
+    }
+
+    /**
+     * @param q - the quantile, 0.5 for the median
+     * @return the latency at that quantile in seconds, 0 if nothing recorded
+     */
+    public double quantile(double q) {
+        return quantiles(new double[] { q })[0];
+    }
+
+    /**
+     * Several quantiles from one pass over the buckets.
+     * @param qs - quantiles in increasing order
+     * @return the latency at each, in seconds
+     */
+    public double[] quantiles(double[] qs) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        double[] result = new double[qs.length];
+        if (total == 0) {
+            return result;
+        }
+        int q = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && q < qs.length; i++) {
+            seen += snapshot[i];
+            while (q < qs.length && seen >= Math.max(1, (long) Math.ceil(qs[q] * total))) {
+                result[q++] = midpoint(i) / 1e6;
+            }
+        }
+        return result;
+    }
+
+    public long getCount() { return count.sum(); }
+
+    /** @return all recorded latencies added up, in seconds */
+    public double getSumSeconds() { return totalMicros.sum() / 1e6; }
+}
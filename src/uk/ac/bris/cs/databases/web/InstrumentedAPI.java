@@ -0,0 +1,65 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.Result;
+
+/**
+ * Times every APIProvider call into Metrics, by method name, and counts
+ * the ones that come back as a failure, a fatal error or an exception.
+ * Overloaded methods are told apart by their parameter count, so the
+ * paged getForum and getTopic ("getTopic/3") are not timed together with
+ * the whole page versions ("getTopic/1").
+ *
+ * @author csxdb
+ */
+public class InstrumentedAPI {
+
+    private InstrumentedAPI() {}
+
+    /**
+     * @param api - the implementation to time
+     * @param metrics - where the timings go
+     * @return an APIProvider that passes every call on to api
+     */
+    public static APIProvider wrap(APIProvider api, Metrics metrics) {
+        // looked up once here, so a call only does a map lookup
+        Method[] methods = APIProvider.class.getMethods();
+        Map<String, Integer> overloads = new HashMap<>();
+        for (Method m : methods) {
+            overloads.merge(m.getName(), 1, Integer::sum);
+        }
+        Map<Method, Metrics.ApiCall> calls = new HashMap<>();
+        for (Method m : methods) {
+            String name = overloads.get(m.getName()) > 1
+                ? m.getName() + "/" + m.getParameterCount() : m.getName();
+            calls.put(m, metrics.call(name));
+        }
+        return (APIProvider) Proxy.newProxyInstance(
+            APIProvider.class.getClassLoader(),
+            new Class<?>[] { APIProvider.class },
+            (proxy, m, args) -> {
+                Metrics.ApiCall call = calls.get(m);
+                if (call == null) { // equals, hashCode, toString
+                    return m.invoke(api, args);
+                }
+                long start = System.nanoTime();
+                try {
+                    Object result = m.invoke(api, args);
+                    if (result instanceof Result && !((Result) result).isSuccess()) {
+                        (((Result) result).isFatal() ? call.fatal : call.failures).increment();
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    call.exceptions.increment();
+                    throw e.getCause();
+                } finally {
+                    call.latency.record(System.nanoTime() - start);
+                }
+            });
+    }
+}
@@ -0,0 +1,191 @@
+package uk.ac.bris.cs.databases.web;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import uk.ac.bris.cs.databases.api.ForumSummaryView;
+import uk.ac.bris.cs.databases.api.ForumView;
+import uk.ac.bris.cs.databases.api.PersonView;
+import uk.ac.bris.cs.databases.api.SimplePostView;
+import uk.ac.bris.cs.databases.api.SimpleTopicSummaryView;
+import uk.ac.bris.cs.databases.api.TopicView;
+
+/**
+ * The api views as JSON, for the /api routes. Members are named after the
+ * views' getters, as a bean serialiser would name them, and lists are
+ * arrays. Views are written field by field with Jackson's streaming
+ * JsonGenerator (jackson-core only, no databind), there is no reflection
+ * and no template. A page that is kept (see PageCache) is
+ * written into memory; in streaming mode any other page is written
+ * through StreamingRenderer as it is sent.
+ *
+ * @author csxdb
+ */
+class JsonViews {
+
+    static final String MIME_TYPE = "application/json";
+
+    // thread safe once configured; the caller owns the stream, and a page cut
+    // short by an error is left unfinished rather than closed into valid JSON
+    private static final JsonFactory FACTORY = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
+    private JsonViews() {}
+
+    /* write value to out as UTF-8 and flush it */
+    private static void writeTo(OutputStream out, Object value) throws IOException {
+        JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        write(g, value);
+        g.close();
+    }
+
+    /**
+     * @param code - the status
+     * @param value - an api view, or a ListWrapper of them
+     * @return the view as a JSON page
+     */
+    static View view(int code, Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try {
+            writeTo(out, value);
+        } catch (IOException e) {
+            // cannot happen, the stream is in memory
+            throw new IllegalStateException(e);
+        }
+        return new View(code, out.toByteArray(), null);
+    }
+
+    /**
+     * For streaming mode: the JSON is written while it is sent, through
+     * StreamingRenderer, instead of being held in memory first.
+     * @param code - the status
+     * @param value - an api view, or a ListWrapper of them
+     * @return the view as a JSON page still to be written
+     */
+    static View streamed(int code, final Object value) {
+        return new View(code, "json", out -> writeTo(out, value));
+    }
+
+    /**
+     * @param code - the status
+     * @param message - what went wrong
+     * @return {"error": message} as a JSON page
+     */
+    static View error(int code, String message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            g.writeStartObject();
+            g.writeStringField("error", message);
+            g.writeEndObject();
+            g.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new View(code, out.toByteArray(), null);
+    }
+
+    static void write(JsonGenerator g, Object value) throws IOException {
+        if (value instanceof AbstractHandler.ListWrapper) {
+            list(g, ((AbstractHandler.ListWrapper<?>) value).getData());
+        } else if (value instanceof List) {
+            list(g, (List<?>) value);
+        } else if (value instanceof TopicView) {
+            topic(g, (TopicView) value);
+        } else if (value instanceof ForumView) {
+            forum(g, (ForumView) value);
+        } else if (value instanceof ForumSummaryView) {
+            forumSummary(g, (ForumSummaryView) value);
+        } else if (value instanceof SimpleTopicSummaryView) {
+            topicSummary(g, (SimpleTopicSummaryView) value);
+        } else if (value instanceof SimplePostView) {
+            post(g, (SimplePostView) value);
+        } else if (value instanceof PersonView) {
+            person(g, (PersonView) value);
+        } else {
+            throw new IllegalArgumentException("No JSON form for "
+                + (value == null ? "null" : value.getClass().getName()));
+        }
+    }
+
+    private static void list(JsonGenerator g, List<?> values) throws IOException {
+        g.writeStartArray();
+        for (Object v : values) {
+            write(g, v);
+        }
+        g.writeEndArray();
+    }
+
+    /* JsonGenerator has no field writer for a number that may be null */
+    private static void field(JsonGenerator g, String name, Integer value) throws IOException {
+        g.writeFieldName(name);
+        if (value == null) {
+            g.writeNull();
+        } else {
+            g.writeNumber(value);
+        }
+    }
+
+    private static void topic(JsonGenerator g, TopicView t) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("topicId", t.getTopicId());
+        g.writeNumberField("forumId", t.getForumId());
+        g.writeStringField("title", t.getTitle());
+        g.writeFieldName("posts");
+        list(g, t.getPosts());
+        field(g, "previousPageAfter", t.getPreviousPageAfter());
+        field(g, "nextPageAfter", t.getNextPageAfter());
+        g.writeEndObject();
+    }
+
+    private static void post(JsonGenerator g, SimplePostView p) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("postNumber", p.getPostNumber());
+        g.writeStringField("author", p.getAuthor());
+        g.writeStringField("text", p.getText());
+        g.writeStringField("postedAt", p.getPostedAt());
+        g.writeEndObject();
+    }
+
+    private static void forum(JsonGenerator g, ForumView f) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("id", f.getId());
+        g.writeStringField("title", f.getTitle());
+        g.writeFieldName("topics");
+        list(g, f.getTopics());
+        g.writeStringField("pageCursor", f.getPageCursor());
+        g.writeStringField("nextPageCursor", f.getNextPageCursor());
+        g.writeEndObject();
+    }
+
+    private static void topicSummary(JsonGenerator g, SimpleTopicSummaryView t) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("topicId", t.getTopicId());
+        g.writeNumberField("forumId", t.getForumId());
+        g.writeStringField("title", t.getTitle());
+        g.writeNumberField("postCount", t.getPostCount());
+        g.writeEndObject();
+    }
+
+    private static void forumSummary(JsonGenerator g, ForumSummaryView f) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("id", f.getId());
+        g.writeStringField("title", f.getTitle());
+        g.writeNumberField("topicCount", f.getTopicCount());
+        g.writeNumberField("postCount", f.getPostCount());
+        g.writeEndObject();
+    }
+
+    private static void person(JsonGenerator g, PersonView p) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("name", p.getName());
+        g.writeStringField("username", p.getUsername());
+        g.writeStringField("studentId", p.getStudentId());
+        g.writeEndObject();
+    }
+}
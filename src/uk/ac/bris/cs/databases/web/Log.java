@@ -0,0 +1,280 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Request logging off the request threads. A log call only checks the
+ * level (and the route's sample rate), claims a slot in a ring buffer with
+ * a compare-and-set and stores the event there; a single writer thread
+ * formats the events and writes them to stdout, so request threads never
+ * wait on the console. If the writer falls a whole ring behind, new events
+ * are dropped and counted rather than blocking anyone. With the ring empty
+ * the writer sleeps until the next event wakes it.
+ *
+ * Lines are "time LEVEL event key=value ...", values quoted if need be and
+ * cut short past the configured length (post bodies can be 8000 chars).
+ *
+ * @author csxdb
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int RING_SIZE = 8192; // power of two
+    private static final int MASK = RING_SIZE - 1;
+    private static final long FLUSH_POLL_NANOS = 1000000;
+
+    private static final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<>(RING_SIZE);
+    /* next slot to claim, producers only */
+    private static final AtomicLong tail = new AtomicLong();
+    /* next slot to write, writer thread only */
+    private static volatile long head = 0;
+    /* everything before this has been flushed, writer thread only */
+    private static volatile long flushed = 0;
+    /* set by the writer just before it parks, producers unpark it if they see it */
+    private static volatile boolean sleeping = false;
+    private static final Thread writer;
+
+    private static volatile Level level = Level.INFO;
+    private static volatile Map<String, Double> sampleRates = Collections.emptyMap();
+    private static volatile int maxValueLength = 200;
+
+    /* metrics */
+    private static final LongAdder written = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // write out what is still in the ring on the way down
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flushRemaining, "log-flush"));
+    }
+
+    private Log() {}
+
+    /**
+     * @param minLevel - events below this are not logged
+     * @param samples - route sample rates as "/topic=0.1,/forum=0.5", where
+     * a route is the first part of the path; routes not listed log everything
+     * @param maxLength - values longer than this are cut short
+     */
+    public static void configure(Level minLevel, String samples, int maxLength) {
+        Map<String, Double> rates = new HashMap<>();
+        if (samples != null) {
+            for (String s : samples.split(",")) {
+                int eq = s.indexOf('=');
+                if (eq > 0) {
+                    rates.put(s.substring(0, eq).trim(), Double.parseDouble(s.substring(eq + 1).trim()));
+                }
+            }
+        }
+        sampleRates = rates;
+        maxValueLength = maxLength;
+        level = minLevel;
+    }
+
+    public static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    /**
+     * Log an event about a request, subject to its route's sample rate.
+     * @param uri - the request path
+     * @param kv - alternating keys and values
+     */
+    public static void request(Level l, String uri, String event, Object... kv) {
+        if (!isEnabled(l)) {
+            return;
+        }
+        Double rate = sampleRates.get(route(uri));
+        if (rate != null && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return;
+        }
+        publish(new Event(l, event, kv));
+    }
+
+    public static void info(String event, Object... kv) {
+        log(Level.INFO, event, kv);
+    }
+
+    public static void warn(String event, Object... kv) {
+        log(Level.WARN, event, kv);
+    }
+
+    public static void error(String event, Object... kv) {
+        log(Level.ERROR, event, kv);
+    }
+
+    public static void log(Level l, String event, Object... kv) {
+        if (isEnabled(l)) {
+            publish(new Event(l, event, kv));
+        }
+    }
+
+    /* "/topic/12" -> "/topic" */
+    private static String route(String uri) {
+        int slash = uri.indexOf('/', 1);
+        return slash < 0 ? uri : uri.substring(0, slash);
+    }
+
+    private static void publish(Event e) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= RING_SIZE) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        ring.set((int) (t & MASK), e);
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 65536);
+        StringBuilder sb = new StringBuilder(256);
+        boolean failing = false;
+        while (true) {
+            boolean idle;
+            try {
+                idle = !writeNext(out, sb);
+                if (idle) {
+                    out.flush();
+                    failing = false;
+                }
+            } catch (IOException e) {
+                // events that could not be written are lost, say so once per failure
+                if (!failing) {
+                    System.err.println("Log output failed, events are being lost: " + e);
+                    failing = true;
+                }
+                idle = true;
+            }
+            if (idle) {
+                flushed = head;
+                sleep();
+            }
+        }
+    }
+
+    /* park until an event is published; the flag is set before the ring is
+       checked again, so a producer either sees it or its event is seen here */
+    private static void sleep() {
+        sleeping = true;
+        if (tail.get() == head) {
+            LockSupport.park();
+        }
+        sleeping = false;
+    }
+
+    private static boolean writeNext(Writer out, StringBuilder sb) throws IOException {
+        long h = head;
+        int i = (int) (h & MASK);
+        Event e = ring.get(i);
+        if (e == null) {
+            if (h != tail.get()) {
+                Thread.onSpinWait(); // claimed but not stored yet
+                return true;
+            }
+            return false;
+        }
+        ring.set(i, null);
+        head = h + 1;
+        sb.setLength(0);
+        format(e, sb);
+        out.write(sb.toString());
+        written.increment();
+        return true;
+    }
+
+    /* give the writer up to a second to get out what was logged before exit */
+    private static void flushRemaining() {
+        long target = tail.get();
+        long end = System.nanoTime() + 1000000000L;
+        while (flushed < target && System.nanoTime() < end) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+        }
+    }
+
+    private static void format(Event e, StringBuilder sb) {
+        sb.append(Instant.ofEpochMilli(e.millis)).append(' ')
+          .append(e.level).append(' ').append(e.event);
+        Object[] kv = e.kv;
+        for (int i = 0; i + 1 < kv.length; i += 2) {
+            sb.append(' ').append(kv[i]).append('=');
+            appendValue(String.valueOf(kv[i + 1]), sb);
+        }
+        sb.append('\n');
+    }
+
+    private static void appendValue(String v, StringBuilder sb) {
+        int max = maxValueLength;
+        int len = Math.min(v.length(), max);
+        boolean quote = len == 0 || len < v.length();
+        for (int i = 0; i < len && !quote; i++) {
+            char c = v.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            sb.append(v);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < len; i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default: sb.append(c);
+            }
+        }
+        if (len < v.length()) {
+            sb.append("...(").append(v.length()).append(" chars)");
+        }
+        sb.append('"');
+    }
+
+    /// metrics ///
+
+    /** @return events written out */
+    public static long getWrittenCount() { return written.sum(); }
+
+    /** @return events lost because the writer was a full ring behind */
+    public static long getDroppedCount() { return dropped.sum(); }
+
+    private static final class Event {
+        final long millis = System.currentTimeMillis();
+        final Level level;
+        final String event;
+        final Object[] kv;
+
+        Event(Level level, String event, Object[] kv) {
+            this.level = level;
+            this.event = event;
+            this.kv = kv;
+        }
+    }
+}
@@ -4,24 +4,26 @@ import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
 import java.util.Map;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.PersonView;
 import uk.ac.bris.cs.databases.api.Result;
 
 /**
+ * Logs a user in by looking up just that person and handing back a signed
+ * session token (see SessionTokens), or logs out when there is no id.
  *
  * @author David
  */
 public class LoginHandler extends AbstractHandler {
 
-    String username = "";
-
     @Override
     public View render(RouterNanoHTTPD.UriResource uriResource,
                        Map<String,String> params,
                        NanoHTTPD.IHTTPSession session) {
         
-        System.out.println("[LoginHandler] render " + session.getUri());
+        Log.request(Log.Level.INFO, session.getUri(), "render", "uri", session.getUri());
         
         String id = params.get("id");
+        String username = "";
         String template;
         Result data;
         
@@ -31,33 +33,30 @@ public class LoginHandler extends AbstractHandler {
             data = Result.success(new ValueHolder("Logged out."));
         } else {
             APIProvider api = ApplicationContext.getInstance().getApi();
-            Result<Map<String, String>> r = api.getUsers();
-            if (!r.isSuccess()) {
+            Result<PersonView> r = api.getPersonView(id);
+            if (r.isSuccess()) {
+                username = id;
+                template = "Success.ftl";
+                data = Result.success(new ValueHolder("Logged in as " + r.getValue().getName()));
+            } else if (r.isFatal()) {
                 template = null;
                 data = Result.fatal("API call failed.");
             } else {
-                Map<String, String> users = r.getValue();
-                String name = users.get(id);
-                if (name == null) {
-                    template = null;
-                    data = Result.failure("No such user");
-                } else {
-                    username = id;
-                    template = "Success.ftl";
-                    data = Result.success(new ValueHolder("Logged in as " + name));
-                }
+                template = null;
+                data = Result.failure("No such user");
             }
         }
 
         NanoHTTPD.CookieHandler h = session.getCookies();
         if (username.equals("")) {
-            h.delete("user");
+            h.delete(SESSION_COOKIE);
         } else {
-            h.set("user", username + ";Path=/", 1);
+            String token = ApplicationContext.getInstance().getSessionTokens().issue(username);
+            h.set(SESSION_COOKIE, token + ";Path=/;HttpOnly", 1);
         }
 
         if (data.isSuccess()) {
-            System.out.println("[SimpleHandler] rendering " + template);
+            Log.request(Log.Level.DEBUG, session.getUri(), "template", "name", template);
             return renderView(template, data.getValue(),
                 username.equals("") ? null : username);
         } else if (data.isFatal()) {
@@ -0,0 +1,239 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import uk.ac.bris.cs.databases.cwk2.CachedAPI;
+import uk.ac.bris.cs.databases.cwk2.ConnectionPool;
+import uk.ac.bris.cs.databases.cwk2.GroupCommitWriter;
+
+/**
+ * Request and api call measurements, and the text the /metrics page shows
+ * them as (Prometheus exposition format). Requests are grouped by route,
+ * the first part of the path as registered in Server.addMappings (the
+ * first two under /api), so there is a fixed set of series whatever URLs
+ * are asked for; anything else is counted under "other".
+ *
+ * Latencies are Histograms, reported as p50, p99 and p99.9 since startup.
+ * The counters the other parts of the server keep (connection pool, caches,
+ * compressor, group commit, bulkheads, log) are read when the page is asked
+ * for, so they cost nothing in between.
+ *
+ * @author csxdb
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.99", "0.999" };
+    private static final String OTHER = "other";
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final Route other = new Route();
+    private final Map<String, ApiCall> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param path - a route as given to addRoute, "/topic/:id" counts as "/topic"
+     */
+    void addRoute(String path) {
+        routes.putIfAbsent(routeOf(path), new Route());
+    }
+
+    /**
+     * @param uri - the request path
+     * @return the route's measurements, for the request to record into
+     */
+    Route route(String uri) {
+        Route r = routes.get(routeOf(uri));
+        return r != null ? r : other;
+    }
+
+    /* "/topic/12" -> "/topic", "/api/topic/12" -> "/api/topic" */
+    private static String routeOf(String uri) {
+        String u = uri.startsWith("/") ? uri : "/" + uri;
+        int slash = u.indexOf('/', 1);
+        if (slash > 0 && u.startsWith(RPHandler.API_PREFIX)) {
+            slash = u.indexOf('/', slash + 1);
+        }
+        return slash < 0 ? u : u.substring(0, slash);
+    }
+
+    /**
+     * @param method - an APIProvider method name
+     * @return its measurements
+     */
+    ApiCall call(String method) {
+        return calls.computeIfAbsent(method, k -> new ApiCall());
+    }
+
+    /** One route's latency, status codes and requests in progress. */
+    static final class Route {
+        final Histogram latency = new Histogram();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLongArray statuses = new AtomicLongArray(600);
+
+        void start() {
+            inFlight.incrementAndGet();
+        }
+
+        void end(long startNanos, int status) {
+            latency.record(System.nanoTime() - startNanos);
+            statuses.incrementAndGet(status >= 100 && status < 600 ? status : 0);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** One api method's latency and how many calls did not succeed. */
+    static final class ApiCall {
+        final Histogram latency = new Histogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder fatal = new LongAdder();
+        final LongAdder exceptions = new LongAdder();
+    }
+
+    /// exposition ///
+
+    /**
+     * @return everything measured, in Prometheus text format
+     */
+    public String render() {
+        StringBuilder sb = new StringBuilder(16384);
+        Map<String, Route> sorted = new TreeMap<>(routes);
+        sorted.put(OTHER, other);
+
+        header(sb, "http_request_duration_seconds", "summary", "Request latency by route since startup.");
+        for (Map.Entry<String, Route> e : sorted.entrySet()) {
+            summary(sb, "http_request_duration_seconds", "route", e.getKey(), e.getValue().latency);
+        }
+        header(sb, "http_requests_total", "counter", "Responses by route and status code.");
+        for (Map.Entry<String, Route> e : sorted.entrySet()) {
+            AtomicLongArray s = e.getValue().statuses;
+            for (int code = 0; code < s.length(); code++) {
+                long n = s.get(code);
+                if (n > 0) {
+                    sb.append("http_requests_total{route=\"").append(e.getKey())
+                      .append("\",code=\"").append(code).append("\"} ").append(n).append('\n');
+                }
+            }
+        }
+        header(sb, "http_requests_in_flight", "gauge", "Requests being handled by route.");
+        for (Map.Entry<String, Route> e : sorted.entrySet()) {
+            sample(sb, "http_requests_in_flight", "route", e.getKey(), e.getValue().inFlight.get());
+        }
+
+        Map<String, ApiCall> api = new TreeMap<>(calls);
+        header(sb, "api_call_duration_seconds", "summary", "APIProvider call latency by method since startup.");
+        for (Map.Entry<String, ApiCall> e : api.entrySet()) {
+            summary(sb, "api_call_duration_seconds", "method", e.getKey(), e.getValue().latency);
+        }
+        header(sb, "api_call_errors_total", "counter", "APIProvider calls that did not succeed, by method and outcome.");
+        for (Map.Entry<String, ApiCall> e : api.entrySet()) {
+            ApiCall c = e.getValue();
+            String m = "method=\"" + e.getKey() + "\",outcome=";
+            sb.append("api_call_errors_total{").append(m).append("\"failure\"} ").append(c.failures.sum()).append('\n');
+            sb.append("api_call_errors_total{").append(m).append("\"fatal\"} ").append(c.fatal.sum()).append('\n');
+            sb.append("api_call_errors_total{").append(m).append("\"exception\"} ").append(c.exceptions.sum()).append('\n');
+        }
+
+        components(sb);
+        return sb.toString();
+    }
+
+    private void components(StringBuilder sb) {
+        ApplicationContext c = ApplicationContext.getInstance();
+
+        ConnectionPool pool = c.getConnectionPool();
+        if (pool != null) {
+            gauge(sb, "db_pool_active", "Connections lent out.", pool.getActiveCount());
+            gauge(sb, "db_pool_idle", "Connections idle in the pool.", pool.getIdleCount());
+            gauge(sb, "db_pool_waiting", "Callers waiting for a connection.", pool.getWaitingCount());
+            gauge(sb, "db_pool_max", "Pool size limit.", pool.getMaxSize());
+            counter(sb, "db_pool_borrows_total", "Connections borrowed.", pool.getBorrowCount());
+            counter(sb, "db_pool_timeouts_total", "Borrows that timed out.", pool.getTimeoutCount());
+            counter(sb, "db_pool_wait_seconds_total", "Time spent waiting for connections.", pool.getWaitNanos() / 1e9);
+            counter(sb, "db_statement_cache_hits_total", "Prepared statements reused.", pool.getStatementCacheHits());
+            counter(sb, "db_statement_cache_misses_total", "Prepared statements created.", pool.getStatementCacheMisses());
+        }
+        if (c.getApi() instanceof CachedAPI) {
+            CachedAPI api = (CachedAPI) c.getApi();
+            counter(sb, "api_cache_hits_total", "Api cache hits.", api.getHitCount());
+            counter(sb, "api_cache_misses_total", "Api cache misses.", api.getMissCount());
+            counter(sb, "api_cache_evictions_total", "Api cache evictions.", api.getEvictionCount());
+            gauge(sb, "api_cache_entries", "Api cache entries.", api.getSize());
+        }
+        GroupCommitWriter writer = c.getGroupCommitWriter();
+        if (writer != null) {
+            counter(sb, "group_commit_batches_total", "Post batches committed.", writer.getBatchCount());
+            counter(sb, "group_commit_posts_total", "Posts written in batches.", writer.getPostCount());
+            counter(sb, "group_commit_fallbacks_total", "Batches retried post by post.", writer.getFallbackCount());
+            gauge(sb, "group_commit_queue", "Posts waiting for the writer.", writer.getQueueLength());
+        }
+        PageCache pages = c.getPageCache();
+        if (pages != null) {
+            counter(sb, "page_cache_hits_total", "Rendered pages served from memory.", pages.getHitCount());
+            counter(sb, "page_cache_misses_total", "Pages that had to be rendered.", pages.getMissCount());
+            counter(sb, "page_cache_evictions_total", "Pages dropped for space.", pages.getEvictionCount());
+            gauge(sb, "page_cache_bytes", "Memory held by rendered pages.", pages.getBytes());
+        }
+        ResponseCompressor gzip = c.getResponseCompressor();
+        if (gzip != null) {
+            counter(sb, "gzip_compressions_total", "Pages compressed, including ones kept in the page cache.", gzip.getCompressedCount());
+            counter(sb, "gzip_bytes_saved_total", "Bytes saved by compression.", gzip.getBytesSaved());
+            counter(sb, "gzip_cpu_seconds_total", "Time spent compressing.", gzip.getCpuNanos() / 1e9);
+        }
+        RequestRunner runner = c.getRequestRunner();
+        if (runner != null) {
+            gauge(sb, "http_connections_active", "Connections being served.", runner.getActiveCount());
+            gauge(sb, "http_connections_queued", "Connections waiting for a thread.", runner.getQueuedCount());
+            counter(sb, "http_connections_rejected_total", "Connections refused at the limits.", runner.getRejectedCount());
+        }
+        AdmissionControl admission = c.getAdmissionControl();
+        if (admission != null) {
+            header(sb, "bulkhead_limit", "gauge", "Current concurrency limit by request class.");
+            for (Bulkhead b : admission.getBulkheads()) {
+                sample(sb, "bulkhead_limit", "class", b.getName(), b.getLimit());
+            }
+            header(sb, "bulkhead_queued", "gauge", "Requests waiting by request class.");
+            for (Bulkhead b : admission.getBulkheads()) {
+                sample(sb, "bulkhead_queued", "class", b.getName(), b.getQueued());
+            }
+            header(sb, "bulkhead_shed_total", "counter", "Requests answered 503 by request class.");
+            for (Bulkhead b : admission.getBulkheads()) {
+                sample(sb, "bulkhead_shed_total", "class", b.getName(), b.getShedCount());
+            }
+        }
+        counter(sb, "log_events_dropped_total", "Log events lost to a full ring.", Log.getDroppedCount());
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String label, String value, Histogram h) {
+        double[] q = h.quantiles(QUANTILES);
+        for (int i = 0; i < q.length; i++) {
+            sb.append(name).append('{').append(label).append("=\"").append(value)
+              .append("\",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ").append(q[i]).append('\n');
+        }
+        sample(sb, name + "_sum", label, value, h.getSumSeconds());
+        sample(sb, name + "_count", label, value, h.getCount());
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value, Number n) {
+        sb.append(name).append('{').append(label).append("=\"").append(value).append("\"} ")
+          .append(n).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, Number n) {
+        header(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(n).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, Number n) {
+        header(sb, name, "counter", help);
+        sb.append(name).append(' ').append(n).append('\n');
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.bris.cs.databases.web;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.router.RouterNanoHTTPD;
+import java.util.Map;
+
+/**
+ * Request and server metrics in Prometheus text format.
+ * path: /metrics
+ *
+ * @author csxdb
+ */
+public class MetricsHandler extends AbstractHandler {
+
+    private static final String MIME_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource,
+                                  Map<String, String> urlParams,
+                                  NanoHTTPD.IHTTPSession session) {
+        Metrics metrics = ApplicationContext.getInstance().getMetrics();
+        if (metrics == null) {
+            return NanoHTTPD.newFixedLengthResponse(new Status(404), "text/plain",
+                "Metrics are off.");
+        }
+        NanoHTTPD.Response r = NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK,
+            MIME_TYPE, metrics.render());
+        r.addHeader("Cache-Control", "no-store");
+        return r;
+    }
+
+    @Override
+    public View render(RouterNanoHTTPD.UriResource uriResource,
+                       Map<String, String> params,
+                       NanoHTTPD.IHTTPSession session) {
+        throw new RuntimeException("Should not happen - using get");
+    }
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+}
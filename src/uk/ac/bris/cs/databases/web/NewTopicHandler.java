@@ -16,8 +16,7 @@ public class NewTopicHandler extends RPHandler {
                         NanoHTTPD.IHTTPSession session)
                         throws RenderException {
         
-        NanoHTTPD.CookieHandler h = session.getCookies();
-        String username = h.read("user");
+        String username = currentUser(session);
         if (username == null || username.equals("")) {
             return new RenderPair(null, Result.failure(
                 "You must log in to create new topics. " +
@@ -0,0 +1,160 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fully rendered pages, kept so that a page whose data has not changed is
+ * sent as stored bytes without running the template again. Pages are
+ * stored with the version (see EntityVersion) they were rendered from and
+ * only served while the version is still current, so a write makes the
+ * cached copy unusable from the next request on, on every server.
+ *
+ * Keys are the page (handler, id and query string) plus who it was
+ * rendered for, as the header names the logged in user. The least
+ * recently used pages are dropped to stay within the memory budget.
+ *
+ * @author csxdb
+ */
+public class PageCache {
+
+    /* rough fixed cost of an entry on top of its bytes */
+    private static final long ENTRY_BYTES = 96;
+
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0; // guarded by lock
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes - the most memory the pages may take, roughly
+     */
+    public PageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param key - the page and variant
+     * @param version - the current version tag of what the page shows
+     * @return the stored page if it was rendered from this version, else null
+     */
+    Page get(String key, String version) {
+        lock.lock();
+        try {
+            Page p = pages.get(key);
+            if (p != null) {
+                if (p.version.equals(version)) {
+                    hits.increment();
+                    return p;
+                }
+                // written to since, no point keeping it
+                pages.remove(key);
+                bytes -= p.weight;
+                stale.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Store a freshly rendered page.
+     * @param key - the page and variant
+     * @param version - the version the page was rendered from
+     * @param body - the page, UTF-8
+     * @param gzipped - the page gzipped, null if not worth compressing
+     * @return the stored page
+     */
+    Page put(String key, String version, byte[] body, byte[] gzipped) {
+        Page p = new Page(version, body, gzipped, ENTRY_BYTES + 2 * key.length());
+        if (p.weight > maxBytes) {
+            return p; // would push everything else out
+        }
+        lock.lock();
+        try {
+            Page old = pages.put(key, p);
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            bytes += p.weight;
+            Iterator<Page> it = pages.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Page eldest = it.next();
+                it.remove();
+                bytes -= eldest.weight;
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return p;
+    }
+
+    /// metrics ///
+
+    public long getHitCount() { return hits.sum(); }
+
+    /** @return lookups that had to render, including stale ones */
+    public long getMissCount() { return misses.sum(); }
+
+    /** @return pages found but dropped because their data had changed */
+    public long getStaleCount() { return stale.sum(); }
+
+    public long getEvictionCount() { return evictions.sum(); }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return pages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return memory taken by the pages, roughly, in bytes */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Page {
+        private final String version;
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final long weight;
+
+        Page(String version, byte[] body, byte[] gzipped, long overhead) {
+            this.version = version;
+            this.body = body;
+            this.gzipped = gzipped;
+            this.weight = overhead + body.length + (gzipped == null ? 0 : gzipped.length);
+        }
+
+        /**
+         * @return the page, do not modify
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return the page gzipped, do not modify; null if not compressed
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+    }
+}
@@ -1,64 +1,50 @@
 package uk.ac.bris.cs.databases.web;
 
 import fi.iki.elonen.NanoHTTPD;
-import fi.iki.elonen.router.RouterNanoHTTPD;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.util.Map;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.PersonListView;
 import uk.ac.bris.cs.databases.api.Result;
 
 /**
+ * Handler for the people directory, one page at a time in username order.
+ * path: /people?prefix=p&after=u&limit=m
  *
  * @author csxdb
  */
-public class PeopleHandler extends AbstractHandler {
-    
-    public class KV {
-        private final String k;
-        private final String v;
+public class PeopleHandler extends RPHandler {
 
-        public KV(String k, String v) {
-            this.k = k;
-            this.v = v;
-        }
+    static final int PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
 
-        /**
-         * @return the k
-         */
-        public String getKey() {
-            return k;
-        }
+    @Override
+    boolean needsParameter() { return false; }
 
-        /**
-         * @return the v
-         */
-        public String getValue() {
-            return v;
+    @Override
+    RenderPair doRender(String p, NanoHTTPD.IHTTPSession session)
+        throws RenderException {
+        Map<String,String> query = parseQuery(session.getQueryParameterString());
+        String prefix = decode(query.get("prefix"));
+        String after = decode(query.get("after"));
+        if (after != null && after.equals("")) {
+            after = null;
         }
+        int limit = Math.min(intParameter(query, "limit", PAGE_SIZE), MAX_PAGE_SIZE);
+        APIProvider api = ApplicationContext.getInstance().getApi();
+        Result<PersonListView> r = api.getPeople(prefix, after, limit);
+        return new RenderPair("PeopleView.ftl", r);
     }
-    
-    @Override
-    public View render(RouterNanoHTTPD.UriResource uriResource,
-                       Map<String,String> params,
-                       NanoHTTPD.IHTTPSession session) {
-         APIProvider api = ApplicationContext.getInstance().getApi();
-         Result<Map<String, String>> r = api.getUsers();
-         
-         if (r.isSuccess()) {
-             List<KV> people = new ArrayList<>(r.getValue().size());
-             for (Map.Entry<String, String> entry : r.getValue().entrySet()) {
-                 people.add(new KV(entry.getKey(), entry.getValue()));
-             }
-             
-            NanoHTTPD.CookieHandler h = session.getCookies();
-            String user = h.read("user");
-             
-             return renderView("PeopleView.ftl", wrap(people), user);
-         } else {
-             return new View(500, "Database error - " + r.getMessage());
-         }
-         
+
+    private String decode(String v) throws RenderException {
+        if (v == null) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(v, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new RenderException(400, "Badly encoded parameter.");
+        }
     }
-    
 }
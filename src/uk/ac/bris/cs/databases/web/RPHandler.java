@@ -2,16 +2,31 @@ package uk.ac.bris.cs.databases.web;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.Map;
+import uk.ac.bris.cs.databases.api.EntityVersion;
 import uk.ac.bris.cs.databases.api.Result;
 
 /**
  * Handler that allows the renderer access to the session.
  * It also provides the RenderPair abstraction, used primarily in the
  * SimpleHandler subclass.
+ *
+ * The same handler serves the JSON form of its page when routed under
+ * /api: the data is written out by JsonViews instead of the template.
  * @author csxdb
  */
 public abstract class RPHandler extends AbstractHandler {
+
+    static final String API_PREFIX = "/api/";
+
+    private boolean json;
     
     public class RenderException extends Exception {
         int code;
@@ -26,10 +41,17 @@ public abstract class RPHandler extends AbstractHandler {
     public class RenderPair {
         final String template;
         final Result data;
+        /* more template variables beside data and session, null for none */
+        final Map<String, Object> extras;
 
         public RenderPair(String template, Result data) {
+            this(template, data, null);
+        }
+
+        public RenderPair(String template, Result data, Map<String, Object> extras) {
             this.template = template;
             this.data = data;
+            this.extras = extras;
         }
     }
     
@@ -38,40 +60,201 @@ public abstract class RPHandler extends AbstractHandler {
 
     // override if you don't need one.
     boolean needsParameter() { return true; }
+
+    /**
+     * Override to support conditional requests: a cheap version of what
+     * doRender would show. If the client already has it the request is
+     * answered with 304 without calling doRender.
+     * @param p - the id parameter
+     * @return the version, or null to always render
+     */
+    EntityVersion version(String p) { return null; }
+
+    /* the page also shows who is logged in, so that is part of its version */
+    private static String etag(EntityVersion version, String user) {
+        String who = user == null ? "anon" : Integer.toHexString(user.hashCode());
+        // weak, as the gzipped and plain bodies differ
+        return "W/\"" + version.getTag() + "." + who + "\"";
+    }
+
+    private static boolean notModified(NanoHTTPD.IHTTPSession session,
+                                       String etag, long lastModified) {
+        Map<String,String> headers = session.getHeaders();
+        String ifNoneMatch = headers.get("if-none-match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag); // takes precedence over the date
+        }
+        String ifModifiedSince = headers.get("if-modified-since");
+        if (ifModifiedSince == null || lastModified <= 0) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince,
+                DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified / 1000 <= since / 1000; // HTTP dates are in whole seconds
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /* store a rendered page, compressed up front if pages are being compressed */
+    private static View keep(PageCache pages, String key, String version, View v) {
+        byte[] body = v.getBody() != null ? v.getBody()
+                    : v.getContents().getBytes(StandardCharsets.UTF_8);
+        ResponseCompressor gzip = ApplicationContext.getInstance().getResponseCompressor();
+        PageCache.Page page = pages.put(key, version, body,
+            gzip == null ? null : gzip.precompress(body));
+        return new View(200, page.getBody(), page.getGzipped());
+    }
+
+    private static void addValidators(View v, String etag, long lastModified) {
+        v.addHeader("ETag", etag);
+        if (lastModified > 0) {
+            v.addHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+        }
+        // per user, and always check back
+        v.addHeader("Cache-Control", "private, no-cache");
+        v.addHeader("Vary", "Accept-Encoding, Cookie");
+    }
+
+    /**
+     * Read an optional integer from the query string (?name=value).
+     * @param query - the parsed query string, see parseQuery
+     * @param name - the parameter to read
+     * @param def - value to use if the parameter is missing or empty
+     * @return the value
+     * @throws RenderException (400) if the value is not a number
+     */
+    int intParameter(Map<String,String> query, String name, int def)
+        throws RenderException {
+        String v = query.get(name);
+        if (v == null || v.equals("")) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new RenderException(400, "Parameter '" + name + "' must be a number.");
+        }
+    }
+
+    /**
+     * The page size the user asked for, for the template to keep in its page
+     * links (as "limit").
+     * @param query - the parsed query string, see parseQuery
+     * @param limit - the page size in use
+     * @return the template variables, null if no limit was given
+     */
+    static Map<String, Object> limitExtras(Map<String,String> query, int limit) {
+        String v = query.get("limit");
+        if (v == null || v.equals("")) {
+            return null;
+        }
+        return Collections.<String, Object>singletonMap("limit", limit);
+    }
+
+    /**
+     * @param p - the id parameter, where it is a number
+     * @return the id
+     * @throws RenderException (400) if it is not a number
+     */
+    int intId(String p) throws RenderException {
+        try {
+            return Integer.parseInt(p);
+        } catch (NumberFormatException e) {
+            throw new RenderException(400, "Id must be a number.");
+        }
+    }
+
+    /* the page, or the data as JSON */
+    private View present(RenderPair rp, String user, boolean stream) {
+        if (json) {
+            // streamed like a page when it is not going to be kept
+            if (stream && ApplicationContext.getInstance().getStreamingRenderer() != null) {
+                return JsonViews.streamed(200, rp.data.getValue());
+            }
+            return JsonViews.view(200, rp.data.getValue());
+        }
+        return renderView(rp.template, rp.data.getValue(), user, stream, rp.extras);
+    }
+
+    private View failure(int code, String message) {
+        return json ? JsonViews.error(code, message) : new View(code, message);
+    }
+
+    @Override
+    public String getMimeType() {
+        return json ? JsonViews.MIME_TYPE : super.getMimeType();
+    }
     
     @Override
     public View render(RouterNanoHTTPD.UriResource uriResource,
                        Map<String,String> params,
                        NanoHTTPD.IHTTPSession session) {
         
-        System.out.println("[RPHandler] render " + session.getUri());
+        Log.request(Log.Level.INFO, session.getUri(), "render", "uri", session.getUri());
+        json = session.getUri().startsWith(API_PREFIX);
         
         // Get the id or complain.
         
         String id = params.get("id");
         if (needsParameter()) {
             if (id == null || id.equals("")) {
-                return new View(404, "Missing parameter.");
+                return failure(404, "Missing parameter.");
             }
         }
       
         try {
-            RenderPair rp = doRender(id, session);
+            String user = currentUser(session);
 
-            NanoHTTPD.CookieHandler h = session.getCookies();
-            String user = h.read("user");
+            // version first, so if a write lands during the render the tag is the older one
+            EntityVersion version = version(id);
+            String etag = null;
+            if (version != null) {
+                etag = etag(version, user);
+                if (notModified(session, etag, version.getLastModified())) {
+                    View v = new View(304, "");
+                    addValidators(v, etag, version.getLastModified());
+                    return v;
+                }
+            }
+
+            // a versioned page may already have been rendered for this user
+            PageCache pages = ApplicationContext.getInstance().getPageCache();
+            String pageKey = null;
+            if (etag != null && pages != null) {
+                String q = session.getQueryParameterString();
+                pageKey = getClass().getSimpleName() + (json ? ".json/" : "/") + id + "?" + (q == null ? "" : q) +
+                    "|" + (user == null ? "" : user);
+                PageCache.Page page = pages.get(pageKey, version.getTag());
+                if (page != null) {
+                    View v = new View(200, page.getBody(), page.getGzipped());
+                    addValidators(v, etag, version.getLastModified());
+                    return v;
+                }
+            }
+
+            RenderPair rp = doRender(id, session);
             
             if (rp.data.isSuccess()) {
-                System.out.println("[SimpleHandler] rendering " + rp.template);
-                return renderView(rp.template, rp.data.getValue(), user);
+                Log.request(Log.Level.DEBUG, session.getUri(), "template", "name", rp.template);
+                View v = present(rp, user, pageKey == null);
+                if (pageKey != null && v.getCode() == 200) {
+                    v = keep(pages, pageKey, version.getTag(), v);
+                }
+                if (etag != null && v.getCode() == 200) {
+                    addValidators(v, etag, version.getLastModified());
+                }
+                return v;
             } else if (rp.data.isFatal()) {
-                return new View(500, "Fatal error - " + rp.data.getMessage());
+                return failure(500, "Fatal error - " + rp.data.getMessage());
             } else {
-                return new View(400, "Error - " + rp.data.getMessage());
+                return failure(400, "Error - " + rp.data.getMessage());
             }
             
         } catch (RenderException e) {
-            return new View(e.code, e.getMessage());
+            return failure(e.code, e.getMessage());
         }
             
     }
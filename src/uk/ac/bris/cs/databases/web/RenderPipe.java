@@ -0,0 +1,159 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded byte pipe between a render thread and the connection sending the
+ * page, in place of PipedInputStream/PipedOutputStream. Those wait with
+ * synchronized and Object.wait(), which pins the carrier thread of a
+ * virtual thread reading from them; this one waits on a ReentrantLock
+ * condition, so a connection waiting for the next chunk gives up its
+ * carrier like any other blocked virtual thread.
+ *
+ * Closing the input side (the client went away) makes the next write
+ * fail, so the render thread stops instead of waiting forever. Closing
+ * the output side is end of page.
+ *
+ * @author csxdb
+ */
+class RenderPipe {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final byte[] buffer;
+    private int head = 0; // next byte to read
+    private int count = 0;
+    private boolean writerClosed = false;
+    private boolean readerClosed = false;
+
+    private final InputStream in = new In();
+    private final OutputStream out = new Out();
+
+    /**
+     * @param size - bytes held before the writer has to wait
+     */
+    RenderPipe(int size) {
+        this.buffer = new byte[size];
+    }
+
+    InputStream in() {
+        return in;
+    }
+
+    OutputStream out() {
+        return out;
+    }
+
+    private class In extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (count == 0 && !writerClosed && !readerClosed) {
+                    notEmpty.await();
+                }
+                if (readerClosed) {
+                    throw new IOException("Pipe closed");
+                }
+                if (count == 0) {
+                    return -1; // writer closed and everything read
+                }
+                int n = Math.min(len, Math.min(count, buffer.length - head));
+                System.arraycopy(buffer, head, b, off, n);
+                head = (head + n) % buffer.length;
+                count -= n;
+                notFull.signal();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class Out extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                lock.lock();
+                try {
+                    while (count == buffer.length && !readerClosed) {
+                        notFull.await();
+                    }
+                    if (readerClosed || writerClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    int tail = (head + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                    System.arraycopy(b, off, buffer, tail, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signal();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
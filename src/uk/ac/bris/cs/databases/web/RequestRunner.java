@@ -0,0 +1,146 @@
+package uk.ac.bris.cs.databases.web;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs NanoHTTPD's connections, in place of its default of a new platform
+ * thread per connection with no limit.
+ *
+ * On a JVM with virtual threads (Java 21 on) each connection gets one, so
+ * thousands of idle keep-alive connections and requests blocked in JDBC
+ * cost little more than their stacks. Blocking in the database code does
+ * not pin the carrier threads: the connection pool, caches and group
+ * commit writer use java.util.concurrent locks, and the MariaDB driver
+ * guards its socket with a ReentrantLock. Nor does waiting for a streamed
+ * page, as RenderPipe waits on a lock condition rather than in
+ * synchronized code. Up to Java 23 anything that does block inside
+ * synchronized (a library we have not checked, say) still pins its
+ * carrier. On older JVMs, or if asked for,
+ * connections run on a bounded pool of platform threads with a bounded
+ * queue instead; a connection holds its thread until it is closed, so
+ * queued connections wait for a keep-alive one to time out.
+ *
+ * Past the connection limit (or a full queue) new connections are closed
+ * straight away and counted as rejected.
+ *
+ * @author csxdb
+ */
+public class RequestRunner implements NanoHTTPD.AsyncRunner {
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int maxConnections;
+    private final Set<NanoHTTPD.ClientHandler> running = ConcurrentHashMap.newKeySet();
+
+    /* metrics */
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param useVirtual - use virtual threads if this JVM has them
+     * @param maxThreads - threads in the platform pool, when it is used
+     * @param maxQueued - connections waiting for a platform thread
+     * @param maxConnections - connections accepted at once, queued included
+     */
+    public RequestRunner(boolean useVirtual, int maxThreads, int maxQueued, int maxConnections) {
+        ExecutorService v = useVirtual ? virtualThreadExecutor() : null;
+        this.virtual = v != null;
+        if (v != null) {
+            this.executor = v;
+        } else {
+            final AtomicInteger n = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxQueued), r -> {
+                    Thread t = new Thread(r, "http-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    /* Executors.newVirtualThreadPerTaskExecutor(), looked up as we build for Java 11 */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // no virtual threads on this JVM
+        }
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler handler) {
+        if (open.incrementAndGet() > maxConnections) {
+            reject(handler);
+            return;
+        }
+        running.add(handler);
+        try {
+            executor.execute(() -> {
+                active.incrementAndGet();
+                try {
+                    handler.run(); // calls closed() when done
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+            accepted.increment();
+        } catch (RejectedExecutionException e) {
+            running.remove(handler);
+            reject(handler);
+        }
+    }
+
+    private void reject(NanoHTTPD.ClientHandler handler) {
+        open.decrementAndGet();
+        rejected.increment();
+        handler.close();
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler handler) {
+        if (running.remove(handler)) {
+            open.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler h : running) {
+            h.close();
+        }
+    }
+
+    /// metrics ///
+
+    /** @return true if connections run on virtual threads */
+    public boolean isVirtual() { return virtual; }
+
+    /** @return connections with a thread, reading or handling a request */
+    public int getActiveCount() { return active.get(); }
+
+    /** @return connections waiting for a platform thread, 0 on virtual threads */
+    public int getQueuedCount() {
+        return virtual ? 0 : ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+
+    /** @return connections accepted so far */
+    public long getAcceptedCount() { return accepted.sum(); }
+
+    /** @return connections closed unserved because of the limits */
+    public long getRejectedCount() { return rejected.sum(); }
+}
@@ -0,0 +1,225 @@
+package uk.ac.bris.cs.databases.web;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip for the rendered pages, negotiated with Accept-Encoding. Pages under
+ * the size threshold go out as they are, as compressing them costs more
+ * than it saves.
+ *
+ * Deflaters, with a CRC and scratch buffer each, are kept on a free list
+ * and reset between responses, so the only allocation per page is the
+ * compressed body itself (NanoHTTPD's built in gzip makes a new
+ * GZIPOutputStream, and with it a new Deflater, per response). A free list
+ * rather than one per thread, as NanoHTTPD starts a new thread for every
+ * connection.
+ *
+ * @author csxdb
+ */
+public class ResponseCompressor {
+
+    /* gzip member header: magic, deflate, no flags, no mtime, no extra flags, unknown OS */
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    /* more idle deflaters than this are thrown away */
+    private static final int MAX_IDLE = 64;
+
+    private final int minBytes;
+    private final int level;
+    private final ArrayBlockingQueue<Gzipper> idle = new ArrayBlockingQueue<>(MAX_IDLE);
+    private final boolean cpuTime;
+
+    /* metrics */
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    /**
+     * @param minBytes - pages smaller than this are not compressed
+     * @param level - deflate level, 1 (fastest) to 9 (smallest)
+     */
+    public ResponseCompressor(int minBytes, int level) {
+        this.minBytes = minBytes;
+        this.level = level;
+        this.cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * @return true if the client said it takes gzip, see AbstractHandler.acceptsGzip
+     */
+    boolean accepts(NanoHTTPD.IHTTPSession session) {
+        return AbstractHandler.acceptsGzip(session.getHeaders().get("accept-encoding"));
+    }
+
+    /**
+     * @param session - the request, for its Accept-Encoding
+     * @param length - size of the page in bytes
+     * @return true if the page should be sent compressed
+     */
+    boolean shouldCompress(NanoHTTPD.IHTTPSession session, int length) {
+        if (length < minBytes || !accepts(session)) {
+            skipped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compress a page that is going to be kept and sent many times.
+     * @param in - the page
+     * @return the page as a gzip stream, null if under the size threshold
+     */
+    byte[] precompress(byte[] in) {
+        return in.length < minBytes ? null : gzip(in);
+    }
+
+    /**
+     * @param in - the page
+     * @return the page as a gzip stream
+     */
+    byte[] gzip(byte[] in) {
+        long start = cpuNow();
+        Gzipper g = take();
+        byte[] out;
+        try {
+            Deflater d = g.deflater;
+            g.crc.update(in, 0, in.length);
+            d.setInput(in);
+            d.finish();
+
+            byte[] buf = g.buffer;
+            System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+            int n = HEADER.length;
+            while (!d.finished()) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    g.buffer = buf;
+                }
+                n += d.deflate(buf, n, buf.length - n);
+            }
+            out = Arrays.copyOf(buf, n + 8);
+            writeTrailer(out, n, g.crc.getValue(), in.length);
+        } finally {
+            give(g);
+        }
+
+        compressed.increment();
+        bytesIn.add(in.length);
+        bytesOut.add(out.length);
+        cpuNanos.add(cpuNow() - start);
+        return out;
+    }
+
+    /**
+     * Gzip a page as it is written, for streamed pages. Holds a Deflater
+     * until closed, so always close it.
+     * @param out - where the compressed stream goes
+     */
+    OutputStream gzipStream(OutputStream out) throws IOException {
+        compressed.increment();
+        return new GzipStream(out, take());
+    }
+
+    private Gzipper take() {
+        Gzipper g = idle.poll();
+        return g != null ? g : new Gzipper(level);
+    }
+
+    private void give(Gzipper g) {
+        g.deflater.reset();
+        g.crc.reset();
+        if (!idle.offer(g)) {
+            g.deflater.end();
+        }
+    }
+
+    private static void writeTrailer(byte[] b, int off, long crc, long length) {
+        for (int i = 0; i < 4; i++) {
+            b[off + i] = (byte) (crc >>> (8 * i));
+            b[off + 4 + i] = (byte) (length >>> (8 * i));
+        }
+    }
+
+    private long cpuNow() {
+        // -1 on virtual threads, whose CPU time is not measured
+        long t = cpuTime ? THREADS.getCurrentThreadCpuTime() : -1;
+        return t >= 0 ? t : System.nanoTime();
+    }
+
+    /// metrics ///
+
+    /** @return responses sent gzipped */
+    public long getCompressedCount() { return compressed.sum(); }
+
+    /** @return responses sent as they were, too small or not accepted */
+    public long getSkippedCount() { return skipped.sum(); }
+
+    /** @return page bytes before compression (not counting streamed pages) */
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    /** @return page bytes after compression (not counting streamed pages) */
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    public long getBytesSaved() { return bytesIn.sum() - bytesOut.sum(); }
+
+    /** @return CPU time spent compressing, in nanoseconds */
+    public long getCpuNanos() { return cpuNanos.sum(); }
+
+    private static final class Gzipper {
+        final Deflater deflater;
+        final CRC32 crc = new CRC32();
+        byte[] buffer = new byte[16384];
+
+        Gzipper(int level) {
+            this.deflater = new Deflater(level, true); // raw deflate, we write the gzip framing
+        }
+    }
+
+    /* gzip framing around a DeflaterOutputStream that does not own its Deflater */
+    private final class GzipStream extends DeflaterOutputStream {
+        private final Gzipper g;
+        private long length = 0;
+        private boolean finished = false;
+
+        GzipStream(OutputStream out, Gzipper g) throws IOException {
+            super(out, g.deflater, 8192);
+            this.g = g;
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            g.crc.update(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                super.finish();
+                byte[] trailer = new byte[8];
+                writeTrailer(trailer, 0, g.crc.getValue(), length);
+                out.write(trailer);
+            } finally {
+                give(g);
+            }
+        }
+    }
+}
@@ -7,11 +7,23 @@ import fi.iki.elonen.router.RouterNanoHTTPD;
 import fi.iki.elonen.util.ServerRunner;
 import freemarker.template.Configuration;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import uk.ac.bris.cs.databases.api.APIProvider;
 import uk.ac.bris.cs.databases.cwk2.API;
+import uk.ac.bris.cs.databases.cwk2.CachedAPI;
+import uk.ac.bris.cs.databases.cwk2.ConnectionPool;
+import uk.ac.bris.cs.databases.cwk2.GroupCommitWriter;
+import uk.ac.bris.cs.databases.cwk2.SqlStats;
+import uk.ac.bris.cs.databases.cwk2.UserIdCache;
 
 /**
  * @author csxdb
@@ -20,11 +32,128 @@ public class Server extends RouterNanoHTTPD {
 
     private static final String DATABASE = "jdbc:mariadb://localhost:3306/bb?user=student";
 
+    // connection pool settings, override with -Ddb.pool.size=... etc.
+    private static final int POOL_SIZE = Integer.getInteger("db.pool.size", 10);
+    private static final long POOL_WAIT_MILLIS = Long.getLong("db.pool.waitMillis", 5000);
+    private static final long POOL_IDLE_MILLIS = Long.getLong("db.pool.idleMillis", 300000);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("db.statementCacheSize", 64);
+    // let MariaDB parse each statement once on the server too
+    private static final boolean SERVER_PREPARE =
+        Boolean.parseBoolean(System.getProperty("db.serverPrepare", "true"));
+
+    // per statement timings shown at /admin/sql, and the slow query log; off by
+    // default as it wraps every statement and reads the clock around each call
+    private static final boolean SQL_STATS = Boolean.getBoolean("db.sqlStats");
+    private static final long SLOW_QUERY_MILLIS = Long.getLong("db.slowQueryMillis", 100);
+    private static final double SLOW_QUERY_SAMPLE =
+        Double.parseDouble(System.getProperty("db.slowQuerySample", "1.0"));
+
+    // username -> id cache used by writes, and how long unknown usernames are remembered
+    private static final int USER_CACHE_ENTRIES = Integer.getInteger("cache.userIds", 100000);
+    private static final long USER_CACHE_MISSING_MILLIS = Long.getLong("cache.userIdMissingMillis", 5000);
+
+    // batch concurrent new posts into shared commits
+    private static final boolean GROUP_COMMIT = Boolean.getBoolean("db.groupCommit");
+    private static final int GROUP_COMMIT_MAX_BATCH = Integer.getInteger("db.groupCommit.maxBatch", 64);
+    private static final long GROUP_COMMIT_MAX_WAIT_MILLIS = Long.getLong("db.groupCommit.maxWaitMillis", 2);
+
+    // read-through cache of forum and topic pages, 0 entries turns it off
+    private static final int CACHE_ENTRIES = Integer.getInteger("cache.maxEntries", 10000);
+    private static final long CACHE_WEIGHT = Long.getLong("cache.maxWeight", 64L << 20);
+
+    // stream pages out while they render instead of building them in memory
+    private static final boolean STREAMING_RENDER = Boolean.getBoolean("render.streaming");
+    private static final int RENDER_PIPE_SIZE = Integer.getInteger("render.pipeSize", 16384);
+    // pick up template edits without a restart, for development
+    private static final boolean TEMPLATE_RELOAD = Boolean.getBoolean("render.templateReload");
+
+    // rendered forum and topic pages kept in memory, 0 turns it off
+    private static final long PAGE_CACHE_BYTES = Long.getLong("render.pageCacheBytes", 32L << 20);
+
+    // gzip pages for clients that accept it, small ones are not worth it
+    private static final boolean GZIP = Boolean.parseBoolean(System.getProperty("http.gzip", "true"));
+    private static final int GZIP_MIN_BYTES = Integer.getInteger("http.gzipMinBytes", 1024);
+    private static final int GZIP_LEVEL = Integer.getInteger("http.gzipLevel", 6);
+
+    // connection threads: virtual if the JVM has them, else a bounded pool
+    private static final boolean VIRTUAL_THREADS =
+        Boolean.parseBoolean(System.getProperty("http.virtualThreads", "true"));
+    private static final int MAX_THREADS = Integer.getInteger("http.maxThreads", 200);
+    private static final int MAX_QUEUED = Integer.getInteger("http.maxQueued", 1000);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("http.maxConnections", 10000);
+    // render threads for streamed pages, no more than there are connection threads
+    private static final int RENDER_MAX_THREADS = Integer.getInteger("render.maxThreads", MAX_THREADS);
+
+    // per class concurrency limits (stylesheets, page reads, posts), adapted to latency
+    private static final boolean ADMISSION = Boolean.parseBoolean(System.getProperty("http.admission", "true"));
+    private static final int STATIC_MAX_CONCURRENT = Integer.getInteger("http.static.maxConcurrent", 256);
+    private static final int STATIC_MAX_QUEUED = Integer.getInteger("http.static.maxQueued", 256);
+    private static final int READ_MAX_CONCURRENT = Integer.getInteger("http.read.maxConcurrent", 64);
+    private static final int READ_MAX_QUEUED = Integer.getInteger("http.read.maxQueued", 128);
+    private static final int WRITE_MAX_CONCURRENT = Integer.getInteger("http.write.maxConcurrent", 16);
+    private static final int WRITE_MAX_QUEUED = Integer.getInteger("http.write.maxQueued", 64);
+    private static final long QUEUE_TIMEOUT_MILLIS = Long.getLong("http.queueTimeoutMillis", 1000);
+    private static final long TARGET_LATENCY_MILLIS = Long.getLong("http.targetLatencyMillis", 250);
+
+    // request log: level, per route sample rates ("/topic=0.1,/forum=0.5"), longest value
+    private static final String LOG_LEVEL = System.getProperty("log.level", "INFO");
+    private static final String LOG_SAMPLE = System.getProperty("log.sample", "");
+    private static final int LOG_MAX_VALUE_LENGTH = Integer.getInteger("log.maxValueLength", 200);
+
+    // latency histograms and counters, served at /metrics
+    private static final boolean METRICS = Boolean.parseBoolean(System.getProperty("http.metrics", "true"));
+    // operator pages: with a token set, served to whoever sends it; otherwise only to
+    // clients on this machine unless turned on for all
+    private static final String[] ADMIN_ROUTES = { "/metrics", "/admin" };
+    private static final boolean ADMIN_REMOTE = Boolean.getBoolean("http.adminRemote");
+    private static final String ADMIN_TOKEN = System.getProperty("http.adminToken", "");
+
+    // login tokens, servers behind one load balancer need the same secret
+    private static final String SESSION_SECRET = System.getProperty("session.secret");
+    private static final long SESSION_TTL_MILLIS = Long.getLong("session.ttlMillis", 86400000);
+
+    // static files kept in memory: URL path, file, content type
+    private static final String[][] ASSETS = {
+        { "/styles.css", "resources/styles.css", "text/css" },
+        { "/gridlex.css", "resources/gridlex.css", "text/css" },
+    };
+
+    private final AdmissionControl admission;
+    private final Metrics metrics;
+    private final RequestRunner runner;
+
     public Server() {
         super(8000);
+        if (METRICS && ApplicationContext.getInstance().getMetrics() == null) {
+            ApplicationContext.getInstance().setMetrics(new Metrics());
+        }
+        metrics = ApplicationContext.getInstance().getMetrics();
+        if (ADMISSION) {
+            admission = new AdmissionControl(
+                new Bulkhead("static", STATIC_MAX_CONCURRENT, STATIC_MAX_QUEUED,
+                    QUEUE_TIMEOUT_MILLIS, TARGET_LATENCY_MILLIS),
+                new Bulkhead("read", READ_MAX_CONCURRENT, READ_MAX_QUEUED,
+                    QUEUE_TIMEOUT_MILLIS, TARGET_LATENCY_MILLIS),
+                new Bulkhead("write", WRITE_MAX_CONCURRENT, WRITE_MAX_QUEUED,
+                    QUEUE_TIMEOUT_MILLIS, TARGET_LATENCY_MILLIS));
+        } else {
+            admission = null;
+        }
+        ApplicationContext.getInstance().setAdmissionControl(admission);
+        runner = new RequestRunner(VIRTUAL_THREADS, MAX_THREADS, MAX_QUEUED, MAX_CONNECTIONS);
+        setAsyncRunner(runner);
+        ApplicationContext.getInstance().setRequestRunner(runner);
         addMappings();
     }
 
+    // the other start methods come through here
+    @Override
+    public void start(int timeout, boolean daemon) throws IOException {
+        super.start(timeout, daemon);
+        System.out.println("Serving connections on " +
+            (runner.isVirtual() ? "virtual threads." : "a pool of " + MAX_THREADS + " threads."));
+    }
+
     @Override public void addMappings() {
         super.addMappings();
         addRoute("/person/:id", PersonHandler.class);
@@ -49,19 +178,134 @@ public class Server extends RouterNanoHTTPD {
         addRoute("/login", LoginHandler.class);
         addRoute("/login/:id", LoginHandler.class);
 
-        addRoute("/styles.css", StyleHandler.class, "resources/styles.css");
-        addRoute("/gridlex.css", StyleHandler.class, "resources/gridlex.css");
+        // the same pages as JSON, see RPHandler
+        addRoute("/api/forums", ForumsHandler.class);
+        addRoute("/api/forum/:id", ForumHandler.class);
+        addRoute("/api/topic/:id", TopicHandler.class);
+        addRoute("/api/person/:id", PersonHandler.class);
+
+        addRoute("/metrics", MetricsHandler.class);
+        addRoute("/admin/sql", SqlStatsHandler.class);
+
+        for (String[] asset : ASSETS) {
+            addRoute(asset[0], StyleHandler.class, asset[0]);
+        }
+    }
+
+    @Override
+    public void addRoute(String url, Class<?> handler, Object... initParameter) {
+        super.addRoute(url, handler, initParameter);
+        if (metrics != null) {
+            metrics.addRoute(url);
+        }
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        if (isAdminRoute(session.getUri()) && !isAdmin(session)) {
+            Response r = newFixedLengthResponse(new AbstractHandler.Status(403), "text/plain",
+                ADMIN_TOKEN.isEmpty() ? "Only available from the server's own machine."
+                                      : "Needs the admin token.");
+            r.addHeader("Cache-Control", "no-store");
+            return r;
+        }
+        if (metrics == null) {
+            return admit(session);
+        }
+        Metrics.Route route = metrics.route(session.getUri());
+        long start = System.nanoTime();
+        route.start();
+        int status = 500;
+        try {
+            Response r = admit(session);
+            status = r.getStatus().getRequestStatus();
+            return r;
+        } finally {
+            route.end(start, status);
+        }
+    }
+
+    private static boolean isAdminRoute(String uri) {
+        for (String route : ADMIN_ROUTES) {
+            if (uri.equals(route) || uri.startsWith(route + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* a reverse proxy on this machine makes every client look local, hence the token */
+    private static boolean isAdmin(IHTTPSession session) {
+        if (!ADMIN_TOKEN.isEmpty()) {
+            String auth = session.getHeaders().get("authorization");
+            return auth != null && MessageDigest.isEqual(
+                auth.getBytes(StandardCharsets.UTF_8),
+                ("Bearer " + ADMIN_TOKEN).getBytes(StandardCharsets.UTF_8));
+        }
+        return ADMIN_REMOTE || isLocal(session);
+    }
+
+    private static boolean isLocal(IHTTPSession session) {
+        try {
+            // always an address literal, so this does no lookup
+            return InetAddress.getByName(session.getRemoteIpAddress()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private Response admit(IHTTPSession session) {
+        if (admission == null) {
+            return super.serve(session);
+        }
+        Bulkhead b = admission.select(session);
+        if (!b.acquire()) {
+            return admission.shed(b);
+        }
+        // a streamed page is still rendering when this returns, its tail is not timed
+        long start = System.nanoTime();
+        try {
+            return super.serve(session);
+        } finally {
+            b.release(start);
+        }
+    }
+
+    // the handlers do their own compression (ResponseCompressor for pages,
+    // StaticAssets for the stylesheets), NanoHTTPD would gzip everything again
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return false;
+    }
+
+    // NanoHTTPD writes a response in several small pieces (the headers, then
+    // the body, then each chunk of a streamed page as header, data and
+    // trailer). With Nagle's algorithm on, a piece after the first waits for
+    // the client to ACK the one before, and clients delay that ACK by up to
+    // 40ms, so every request on a kept-alive connection paid it.
+    @Override
+    protected ClientHandler createClientHandler(Socket socket, InputStream inputStream) {
+        try {
+            socket.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            // still usable, only slower
+        }
+        return super.createClientHandler(socket, inputStream);
     }
 
     public static void main(String[] args) throws Exception {
 
         ApplicationContext c = ApplicationContext.getInstance();
+        Log.configure(Log.Level.valueOf(LOG_LEVEL.toUpperCase()), LOG_SAMPLE, LOG_MAX_VALUE_LENGTH);
+        if (METRICS) {
+            c.setMetrics(new Metrics());
+        }
 
         // database //
 
-        Connection conn;
+        ConnectionPool pool = null;
         try {
-            String cs = DATABASE;
+            String cs = DATABASE + "&useServerPrepStmts=" + SERVER_PREPARE;
             if (args.length >= 1) {
                 cs = cs + "&localSocket=" + args[0];
                 System.out.println("Using DB socket file: " + args[0]);
@@ -69,15 +313,44 @@ public class Server extends RouterNanoHTTPD {
                 //System.out.println("Not using a DB socket file.");
             }
 
-            conn = DriverManager.getConnection(cs);
-            conn.setAutoCommit(false);
-            APIProvider api = new API(conn);
+            pool = new ConnectionPool(cs, POOL_SIZE, POOL_WAIT_MILLIS, POOL_IDLE_MILLIS);
+            pool.setStatementCacheSize(STATEMENT_CACHE_SIZE);
+            if (SQL_STATS) {
+                SqlStats stats = new SqlStats(SLOW_QUERY_MILLIS, SLOW_QUERY_SAMPLE);
+                stats.setSlowQueryListener((sql, nanos) ->
+                    Log.warn("slow-query", "ms", nanos / 1000000, "sql", sql));
+                pool.setSqlStats(stats);
+            }
+            // borrow one straight away so a bad connection string fails at startup
+            try (Connection conn = pool.getConnection()) {
+                conn.getMetaData();
+            }
+            API impl = new API(pool,
+                new UserIdCache(USER_CACHE_ENTRIES, USER_CACHE_MISSING_MILLIS));
+            if (GROUP_COMMIT) {
+                GroupCommitWriter writer = new GroupCommitWriter(pool,
+                    GROUP_COMMIT_MAX_BATCH, GROUP_COMMIT_MAX_WAIT_MILLIS);
+                impl.setGroupCommitWriter(writer);
+                c.setGroupCommitWriter(writer);
+            }
+            APIProvider api = impl;
+            if (c.getMetrics() != null) {
+                // inside the cache, so these are the calls that reach the database
+                api = InstrumentedAPI.wrap(api, c.getMetrics());
+            }
+            if (CACHE_ENTRIES > 0) {
+                api = new CachedAPI(api, CACHE_ENTRIES, CACHE_WEIGHT);
+            }
             c.setApi(api);
+            c.setConnectionPool(pool);
 
             // AF: Info messages
             System.out.println("Server accessible at: http://localhost:8000");
             System.out.println("Forums accessible at: http://localhost:8000/forums");
         } catch (SQLException e) {
+            if (pool != null) {
+                pool.close();
+            }
             System.out.println("Connection to database failed. " +
                 "Check that the database is running and that the socket file " +
                 "is correct if you are using one.");
@@ -86,14 +359,41 @@ public class Server extends RouterNanoHTTPD {
 
         // templating //
 
-        Configuration cfg = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
-        cfg.setDirectoryForTemplateLoading(new File("resources/templates"));
-        cfg.setDefaultEncoding("UTF-8");
+        // parses every template now, a broken one stops the server here
+        Configuration cfg = Templates.load(new File("resources/templates"), TEMPLATE_RELOAD);
+
+        StaticAssets assets = new StaticAssets();
+        for (String[] asset : ASSETS) {
+            assets.load(asset[0], asset[1], asset[2]);
+        }
+        c.setStaticAssets(assets);
+        // header.html links to ${assets["/styles.css"]}, which carries the content hash
+        cfg.setSharedVariable("assets", assets.getUrls());
         c.setTemplateConfiguration(cfg);
+        if (STREAMING_RENDER) {
+            c.setStreamingRenderer(new StreamingRenderer(RENDER_PIPE_SIZE, RENDER_MAX_THREADS));
+        }
+        if (GZIP) {
+            c.setResponseCompressor(new ResponseCompressor(GZIP_MIN_BYTES, GZIP_LEVEL));
+        }
+        if (PAGE_CACHE_BYTES > 0) {
+            c.setPageCache(new PageCache(PAGE_CACHE_BYTES));
+        }
+
+        // sessions //
+
+        byte[] secret;
+        if (SESSION_SECRET == null || SESSION_SECRET.equals("")) {
+            System.out.println("No session.secret set, logins will not survive a restart.");
+            secret = SessionTokens.randomSecret();
+        } else {
+            secret = SESSION_SECRET.getBytes(StandardCharsets.UTF_8);
+        }
+        c.setSessionTokens(new SessionTokens(secret, SESSION_TTL_MILLIS));
 
         // server //
 
-        Server server = new Server();
-        ServerRunner.run(Server.class);
+        // one server: the constructor installs its runner and bulkheads in the context
+        ServerRunner.executeInstance(new Server());
     }
 }
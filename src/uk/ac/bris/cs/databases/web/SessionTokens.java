@@ -0,0 +1,105 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues and checks the session cookie. A token is the username and an
+ * expiry time signed with HMAC-SHA256, so checking one needs no database
+ * or server-side session table and any server sharing the secret accepts
+ * tokens issued by the others.
+ *
+ * Token format: base64url(username) "." expiry millis "." base64url(mac)
+ *
+ * @author csxdb
+ */
+public class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    // Mac is not thread safe and costly to look up, so one per thread
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param secret - signing key, every server behind the same load
+     * balancer must use the same one
+     * @param ttlMillis - how long an issued token stays valid
+     */
+    public SessionTokens(byte[] secret, long ttlMillis) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlMillis = ttlMillis;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance(ALGORITHM);
+                m.init(key);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC not available", e);
+            }
+        });
+        macs.get(); // fail at startup rather than on the first login
+    }
+
+    /**
+     * @return a random secret, for when none is configured (tokens then do
+     * not survive a restart and are only good on this server)
+     */
+    public static byte[] randomSecret() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    /**
+     * @param username - the user who has just logged in
+     * @return a signed token for the session cookie
+     */
+    public String issue(String username) {
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8))
+            + "." + (System.currentTimeMillis() + ttlMillis);
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * @param token - the session cookie, may be null
+     * @return the username the token was issued to, or null if the token
+     * is missing, malformed, forged or expired
+     */
+    public String verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int sig = token.lastIndexOf('.');
+        int exp = sig < 0 ? -1 : token.lastIndexOf('.', sig - 1);
+        if (exp < 0) {
+            return null;
+        }
+        String payload = token.substring(0, sig);
+        try {
+            byte[] given = DECODER.decode(token.substring(sig + 1));
+            if (!MessageDigest.isEqual(given, sign(payload))) {
+                return null;
+            }
+            long expires = Long.parseLong(token.substring(exp + 1, sig));
+            if (expires < System.currentTimeMillis()) {
+                return null;
+            }
+            return new String(DECODER.decode(token.substring(0, exp)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) { // bad base64 or number
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
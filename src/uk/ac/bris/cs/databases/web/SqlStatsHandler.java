@@ -0,0 +1,26 @@
+package uk.ac.bris.cs.databases.web;
+
+import uk.ac.bris.cs.databases.api.Result;
+import uk.ac.bris.cs.databases.cwk2.ConnectionPool;
+import uk.ac.bris.cs.databases.cwk2.SqlStats;
+
+/**
+ * Time spent on each SQL statement, slowest first.
+ * path: /admin/sql (admin token or local clients only, see Server)
+ *
+ * @author csxdb
+ */
+public class SqlStatsHandler extends SimpleHandler {
+
+    @Override
+    RenderPair simpleRender(String p) throws RenderException {
+        ConnectionPool pool = ApplicationContext.getInstance().getConnectionPool();
+        SqlStats stats = pool == null ? null : pool.getSqlStats();
+        if (stats == null) {
+            return new RenderPair("SqlStatsView.ftl", Result.failure("SQL timing is off."));
+        }
+        return new RenderPair("SqlStatsView.ftl", Result.success(stats));
+    }
+
+    @Override boolean needsParameter() { return false; }
+}
@@ -0,0 +1,130 @@
+package uk.ac.bris.cs.databases.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Static files (the stylesheets) read once at startup and kept in memory,
+ * along with a gzipped copy and a content hash. The hash is the strong
+ * ETag and also goes in the URLs the templates link to, so a changed file
+ * gets a new URL and browsers can cache each version for good.
+ *
+ * @author csxdb
+ */
+public class StaticAssets {
+
+    private final Map<String, Asset> assets = new HashMap<>();
+    private final Map<String, String> urls = new HashMap<>();
+
+    /**
+     * Read a file and serve it at path. Call before the server starts.
+     * @param path - the URL path, e.g. /styles.css
+     * @param file - the file to read
+     * @param mimeType - the content type to send
+     */
+    public void load(String path, String file, String mimeType) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(file));
+        ByteArrayOutputStream gz = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(bytes);
+        }
+        String hash = hash(bytes);
+        // only worth sending compressed if it is actually smaller
+        byte[] gzipped = gz.size() < bytes.length ? gz.toByteArray() : null;
+        assets.put(path, new Asset(mimeType, bytes, gzipped, hash));
+        urls.put(path, path + "?v=" + hash);
+    }
+
+    /**
+     * @param path - the URL path the asset was loaded under
+     * @return the asset, null if there is none at that path
+     */
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    /**
+     * @return URL path -> versioned URL to link to, for the templates
+     */
+    public Map<String, String> getUrls() {
+        return Collections.unmodifiableMap(urls);
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static class Asset {
+        private final String mimeType;
+        private final byte[] bytes;
+        private final byte[] gzipped; // null if compressing did not help
+        private final String hash;
+        private final String etag;
+        private final String gzipEtag;
+
+        Asset(String mimeType, byte[] bytes, byte[] gzipped, String hash) {
+            this.mimeType = mimeType;
+            this.bytes = bytes;
+            this.gzipped = gzipped;
+            this.hash = hash;
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gz\"";
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return the file contents, do not modify
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the gzipped contents, do not modify; null if not smaller
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        /**
+         * @return the content hash used in versioned URLs
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the strong ETag, quotes included
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the strong ETag of the gzipped contents, quotes included
+         */
+        public String getGzipEtag() {
+            return gzipEtag;
+        }
+    }
+}
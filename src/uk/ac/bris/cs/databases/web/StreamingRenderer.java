@@ -0,0 +1,113 @@
+package uk.ac.bris.cs.databases.web;
+
+import fi.iki.elonen.NanoHTTPD;
+import freemarker.template.TemplateException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming render mode: a page (a template being processed, or JSON
+ * from JsonViews) is written on a render thread straight into a bounded
+ * pipe (a RenderPipe), and the server sends whatever is in the pipe as a chunked response
+ * while rendering carries on. The first bytes go out as soon as the pipe
+ * has them and at most one pipe's worth of the page is held in memory,
+ * whatever the size of the page.
+ *
+ * There are only so many render threads. When they are all busy a page is
+ * rendered in full on the request's own thread and sent with its length,
+ * as it would be without streaming, so slow clients cannot make the
+ * server start threads past the limit.
+ *
+ * @author csxdb
+ */
+public class StreamingRenderer {
+
+    /** Writes a page out as UTF-8. */
+    public interface Page {
+        void writeTo(OutputStream out) throws IOException, TemplateException;
+    }
+
+    private final int pipeSize;
+    private final ThreadPoolExecutor renderers;
+
+    /**
+     * @param pipeSize - bytes buffered between the render thread and the
+     * socket; the render thread waits while the pipe is full.
+     * @param maxThreads - pages streamed at once, one render thread each
+     */
+    public StreamingRenderer(int pipeSize, int maxThreads) {
+        this.pipeSize = pipeSize;
+        final AtomicInteger n = new AtomicInteger();
+        // no queue: a page that would wait for a render thread is rendered in full instead
+        this.renderers = new ThreadPoolExecutor(0, maxThreads,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "render-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /**
+     * Start rendering and return a chunked response that reads the output,
+     * or render in full here if no render thread is free.
+     * @param name - what the page is, for the log
+     * @param gzip - compress the page as it renders, null to send it as is
+     */
+    NanoHTTPD.Response respond(NanoHTTPD.Response.IStatus status, String mimeType,
+                               final String name, final Page page,
+                               final ResponseCompressor gzip) {
+        final RenderPipe pipe = new RenderPipe(pipeSize);
+        try {
+            renderers.execute(() -> {
+                // out is closed even if closing the gzip stream fails, so the reader sees the end
+                try (OutputStream out = pipe.out();
+                     OutputStream o = gzip == null ? out : gzip.gzipStream(out)) {
+                    page.writeTo(o);
+                } catch (TemplateException | IOException e) {
+                    // headers are already gone, so all we can do is cut the page short
+                    Log.warn("render-failed", "page", name, "error", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return inFull(status, mimeType, page, gzip);
+        }
+        NanoHTTPD.Response r = NanoHTTPD.newChunkedResponse(status, mimeType, pipe.in());
+        if (gzip != null) {
+            r.addHeader("Content-Encoding", "gzip");
+        }
+        return r;
+    }
+
+    /* on the calling thread into memory, as AbstractHandler.renderView does */
+    private static NanoHTTPD.Response inFull(NanoHTTPD.Response.IStatus status, String mimeType,
+                                             Page page, ResponseCompressor gzip) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(16384);
+        try {
+            page.writeTo(buf);
+        } catch (TemplateException | IOException e) {
+            return NanoHTTPD.newFixedLengthResponse(new AbstractHandler.Status(500),
+                mimeType, "Rendering error - " + e.getMessage());
+        }
+        byte[] body = buf.toByteArray();
+        if (gzip != null) {
+            body = gzip.gzip(body);
+        }
+        NanoHTTPD.Response r = NanoHTTPD.newFixedLengthResponse(status, mimeType,
+            new ByteArrayInputStream(body), body.length);
+        if (gzip != null) {
+            r.addHeader("Content-Encoding", "gzip");
+        }
+        return r;
+    }
+
+    public void shutdown() {
+        renderers.shutdown();
+    }
+}
@@ -2,41 +2,66 @@ package uk.ac.bris.cs.databases.web;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.router.RouterNanoHTTPD;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.ByteArrayInputStream;
 import java.util.Map;
 
 /**
+ * Serves the stylesheets from memory (see StaticAssets), gzipped if the
+ * client accepts it. Requests for the versioned URL (?v=hash) may be cached
+ * for a year; plain ones are revalidated, answered with 304 if the ETag
+ * still matches.
  *
  * @author David
  */
 public class StyleHandler extends AbstractHandler {
 
+    private static final String CACHE_FOREVER = "public, max-age=31536000, immutable";
+    private static final String CACHE_REVALIDATE = "no-cache";
+
+    @Override
+    public NanoHTTPD.Response get(RouterNanoHTTPD.UriResource uriResource,
+                                  Map<String, String> urlParams,
+                                  NanoHTTPD.IHTTPSession session) {
+
+        String path = uriResource.initParameter(String.class);
+        StaticAssets.Asset asset = ApplicationContext.getInstance().getStaticAssets().get(path);
+        if (asset == null) {
+            return NanoHTTPD.newFixedLengthResponse(new Status(404), "text/plain",
+                "No such file.");
+        }
+
+        Map<String, String> headers = session.getHeaders();
+        String version = session.getParms().get("v");
+        String cacheControl = asset.getHash().equals(version) ? CACHE_FOREVER : CACHE_REVALIDATE;
+
+        boolean gzip = asset.getGzipped() != null && acceptsGzip(headers.get("accept-encoding"));
+        // the two encodings are different bytes, so they get different strong tags
+        String etag = gzip ? asset.getGzipEtag() : asset.getEtag();
+
+        NanoHTTPD.Response r;
+        if (etagMatches(headers.get("if-none-match"), etag)) {
+            r = NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.NOT_MODIFIED,
+                asset.getMimeType(), "");
+        } else {
+            byte[] body = gzip ? asset.getGzipped() : asset.getBytes();
+            r = NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK,
+                asset.getMimeType(), new ByteArrayInputStream(body), body.length);
+            if (gzip) {
+                // Server leaves responses that are already encoded alone
+                r.addHeader("Content-Encoding", "gzip");
+            }
+        }
+        r.addHeader("ETag", etag);
+        r.addHeader("Cache-Control", cacheControl);
+        r.addHeader("Vary", "Accept-Encoding");
+        return r;
+    }
+
     @Override
     public View render(RouterNanoHTTPD.UriResource uriResource,
                        Map<String, String> params,
                        NanoHTTPD.IHTTPSession session) {
-        
-        String filename = uriResource.initParameter(String.class);
-        
-        try {
-            File f = new File(filename);
-            FileReader fr = new FileReader(f);
-            BufferedReader br = new BufferedReader(fr);
-            
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            br.close();
-            return new View(200, sb.toString());
-        } catch (IOException e) {
-            return new View(500, "Error reading file - " + e.getMessage());
-        }
+        throw new RuntimeException("Should not happen - using get");
     }
 
     @Override
@@ -0,0 +1,55 @@
+package uk.ac.bris.cs.databases.web;
+
+import freemarker.cache.StrongCacheStorage;
+import freemarker.template.Configuration;
+import freemarker.template.TemplateExceptionHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sets up FreeMarker for the pages. Every template is parsed at startup,
+ * so a broken one stops the server instead of failing its first request,
+ * and the first request after a deploy does not pay for the parsing.
+ *
+ * Parsed templates are held for good and, unless reloading is on, the
+ * files are never checked for changes again.
+ *
+ * @author csxdb
+ */
+public class Templates {
+
+    private Templates() {}
+
+    /**
+     * @param dir - the template directory
+     * @param reload - check the files for changes (every 2 seconds), for
+     * editing templates on a running server
+     * @return the configuration, with every template already loaded
+     * @throws IOException if a template can not be read or does not parse
+     */
+    public static Configuration load(File dir, boolean reload) throws IOException {
+        Configuration cfg = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
+        cfg.setDirectoryForTemplateLoading(dir);
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setObjectWrapper(new ViewObjectWrapper(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS));
+        cfg.setCacheStorage(new StrongCacheStorage());
+        cfg.setTemplateUpdateDelayMilliseconds(reload ? 2000 : Long.MAX_VALUE);
+        // the handlers report errors themselves, no half page with a stack trace in it
+        cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        cfg.setLogTemplateExceptions(false);
+
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IOException("No template directory " + dir);
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            // pages and the header/footer they include
+            if (name.endsWith(".ftl") || name.endsWith(".html")) {
+                cfg.getTemplate(name);
+            }
+        }
+        return cfg;
+    }
+}
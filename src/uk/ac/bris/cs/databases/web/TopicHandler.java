@@ -1,21 +1,45 @@
 package uk.ac.bris.cs.databases.web;
 
+import fi.iki.elonen.NanoHTTPD;
+import java.util.Map;
 import uk.ac.bris.cs.databases.api.APIProvider;
+import uk.ac.bris.cs.databases.api.EntityVersion;
 import uk.ac.bris.cs.databases.api.Result;
 import uk.ac.bris.cs.databases.api.TopicView;
 
 /**
+ * Shows one page of a topic.
+ * path: /topic/:id?after=n&limit=m
  *
  * @author csxdb
  */
-public class TopicHandler extends SimpleHandler {
+public class TopicHandler extends RPHandler {
+
+    static final int PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+
+    @Override
+    EntityVersion version(String p) {
+        int id;
+        try {
+            id = Integer.parseInt(p);
+        } catch (NumberFormatException e) {
+            return null; // doRender reports it
+        }
+        Result<EntityVersion> r = ApplicationContext.getInstance().getApi().getTopicVersion(id);
+        return r.isSuccess() ? r.getValue() : null;
+    }
 
     @Override
-    public RenderPair simpleRender(String p) {
+    public RenderPair doRender(String p, NanoHTTPD.IHTTPSession session)
+        throws RenderException {
         
-        int id = Integer.parseInt(p);
+        int id = intId(p);
+        Map<String,String> query = parseQuery(session.getQueryParameterString());
+        int after = intParameter(query, "after", 0);
+        int limit = Math.min(intParameter(query, "limit", PAGE_SIZE), MAX_PAGE_SIZE);
         APIProvider api = ApplicationContext.getInstance().getApi();
-        Result<TopicView> r = api.getTopic(id);
-        return new RenderPair("TopicView.ftl", r);
+        Result<TopicView> r = api.getTopic(id, after, limit);
+        return new RenderPair("TopicView.ftl", r, limitExtras(query, limit));
     }
 }
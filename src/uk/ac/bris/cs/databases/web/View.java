@@ -1,5 +1,14 @@
 package uk.ac.bris.cs.databases.web;
 
+import freemarker.template.Template;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  *
  * @author csxdb
@@ -8,6 +17,17 @@ public class View {
     private int code;
     private String contents;
 
+    /* set instead of contents when the page is to be streamed */
+    private String name;
+    private StreamingRenderer.Page page;
+
+    /* set instead of contents for a page that is already encoded */
+    private byte[] body;
+    private byte[] gzipped;
+
+    /* extra response headers, null until one is added */
+    private Map<String, String> headers;
+
     public View() {
     }
 
@@ -15,7 +35,91 @@ public class View {
         this.code = code;
         this.contents = contents;
     }
+
+    /**
+     * A view that is rendered while it is being sent, see StreamingRenderer.
+     */
+    public View(int code, final Template template, final Object model) {
+        this(code, template.getName(), out -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            template.process(model, w);
+            w.flush();
+        });
+    }
+
+    /**
+     * A view that is written out while it is being sent, see StreamingRenderer.
+     * @param name - what the page is, for the log
+     */
+    public View(int code, String name, StreamingRenderer.Page page) {
+        this.code = code;
+        this.name = name;
+        this.page = page;
+    }
+
+    /**
+     * A view of an already encoded page, see PageCache.
+     * @param body - the page, UTF-8
+     * @param gzipped - the page gzipped, null to compress as usual
+     */
+    public View(int code, byte[] body, byte[] gzipped) {
+        this.code = code;
+        this.body = body;
+        this.gzipped = gzipped;
+    }
+
+    /**
+     * @return the encoded page, null unless made from bytes
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the page gzipped, null if not already compressed
+     */
+    public byte[] getGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return true if this view still has to be written out
+     */
+    public boolean isStreamed() {
+        return page != null;
+    }
+
+    /**
+     * @return the template name or other description of a streamed view
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return what writes out a streamed view
+     */
+    public StreamingRenderer.Page getPage() {
+        return page;
+    }
     
+    /**
+     * Send an extra header with this view.
+     */
+    public void addHeader(String name, String value) {
+        if (headers == null) {
+            headers = new LinkedHashMap<>();
+        }
+        headers.put(name, value);
+    }
+
+    /**
+     * @return the extra headers to send
+     */
+    public Map<String, String> getHeaders() {
+        return headers == null ? Collections.<String, String>emptyMap() : headers;
+    }
+
     /**
      * @return the code
      */
@@ -0,0 +1,149 @@
+package uk.ac.bris.cs.databases.web;
+
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.Version;
+import uk.ac.bris.cs.databases.api.ForumSummaryView;
+import uk.ac.bris.cs.databases.api.ForumView;
+import uk.ac.bris.cs.databases.api.PersonListView;
+import uk.ac.bris.cs.databases.api.PersonView;
+import uk.ac.bris.cs.databases.api.SimplePostView;
+import uk.ac.bris.cs.databases.api.SimpleTopicSummaryView;
+import uk.ac.bris.cs.databases.api.TopicView;
+import uk.ac.bris.cs.databases.web.AbstractHandler.ListWrapper;
+
+/**
+ * Object wrapper that gives the templates the api view classes through
+ * plain getter calls instead of the bean introspection and reflective
+ * method calls DefaultObjectWrapper does for every property read. Anything
+ * else is wrapped as before. Lists are wrapped as adapters rather than
+ * copied, so their elements come back through here one at a time.
+ *
+ * A property the templates have not been given here reads as missing.
+ *
+ * @author csxdb
+ */
+public class ViewObjectWrapper extends DefaultObjectWrapper {
+
+    public ViewObjectWrapper(Version incompatibleImprovements) {
+        super(incompatibleImprovements);
+        setUseAdaptersForContainers(true);
+    }
+
+    @Override
+    protected TemplateModel handleUnknownType(Object obj) throws TemplateModelException {
+        if (obj instanceof SimplePostView) {
+            SimplePostView p = (SimplePostView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "postNumber": return new SimpleNumber(p.getPostNumber());
+                    case "author": return scalar(p.getAuthor());
+                    case "text": return scalar(p.getText());
+                    case "postedAt": return scalar(p.getPostedAt());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof TopicView) {
+            TopicView t = (TopicView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "topicId": return new SimpleNumber(t.getTopicId());
+                    case "forumId": return new SimpleNumber(t.getForumId());
+                    case "title": return scalar(t.getTitle());
+                    case "posts": return wrap(t.getPosts());
+                    case "previousPageAfter": return number(t.getPreviousPageAfter());
+                    case "nextPageAfter": return number(t.getNextPageAfter());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof SimpleTopicSummaryView) {
+            SimpleTopicSummaryView t = (SimpleTopicSummaryView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "topicId": return new SimpleNumber(t.getTopicId());
+                    case "forumId": return new SimpleNumber(t.getForumId());
+                    case "title": return scalar(t.getTitle());
+                    case "postCount": return new SimpleNumber(t.getPostCount());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof ForumView) {
+            ForumView f = (ForumView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "id": return new SimpleNumber(f.getId());
+                    case "title": return scalar(f.getTitle());
+                    case "topics": return wrap(f.getTopics());
+                    case "pageCursor": return scalar(f.getPageCursor());
+                    case "nextPageCursor": return scalar(f.getNextPageCursor());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof ForumSummaryView) {
+            ForumSummaryView f = (ForumSummaryView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "id": return new SimpleNumber(f.getId());
+                    case "title": return scalar(f.getTitle());
+                    case "topicCount": return new SimpleNumber(f.getTopicCount());
+                    case "postCount": return new SimpleNumber(f.getPostCount());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof PersonView) {
+            PersonView p = (PersonView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "name": return scalar(p.getName());
+                    case "username": return scalar(p.getUsername());
+                    case "studentId": return scalar(p.getStudentId());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof PersonListView) {
+            PersonListView l = (PersonListView) obj;
+            return (Model) key -> {
+                switch (key) {
+                    case "prefix": return scalar(l.getPrefix());
+                    case "people": return wrap(l.getPeople());
+                    case "pageAfter": return scalar(l.getPageAfter());
+                    case "nextPageAfter": return scalar(l.getNextPageAfter());
+                    default: return null;
+                }
+            };
+        }
+        if (obj instanceof ListWrapper) {
+            ListWrapper<?> l = (ListWrapper<?>) obj;
+            return (Model) key -> key.equals("data") ? wrap(l.getData()) : null;
+        }
+        return super.handleUnknownType(obj);
+    }
+
+    /* null stays null, so ?? and <#if x??> work as they did */
+    private static TemplateModel scalar(String s) {
+        return s == null ? null : new SimpleScalar(s);
+    }
+
+    private static TemplateModel number(Integer n) {
+        return n == null ? null : new SimpleNumber(n);
+    }
+
+    /* a view as a hash of its properties, looked up by name */
+    @FunctionalInterface
+    private interface Model extends TemplateHashModel {
+        @Override
+        default boolean isEmpty() {
+            return false;
+        }
+    }
+}